@@ -3,11 +3,16 @@ package com.kingpixel.ultraeconomy;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.cobbleutils.util.Utils;
+import com.kingpixel.ultraeconomy.api.UltraEconomyAsyncApi;
 import com.kingpixel.ultraeconomy.commands.Register;
 import com.kingpixel.ultraeconomy.config.Config;
 import com.kingpixel.ultraeconomy.config.Currencies;
 import com.kingpixel.ultraeconomy.config.Lang;
 import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.manager.BalTopCacheManager;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
+import com.kingpixel.ultraeconomy.manager.PlayerIndexManager;
+import com.kingpixel.ultraeconomy.manager.PlayerLocaleManager;
 import com.kingpixel.ultraeconomy.manager.PlayerMessageQueueManager;
 import com.kingpixel.ultraeconomy.models.Account;
 import com.kingpixel.ultraeconomy.placeholders.PlaceHolders;
@@ -16,10 +21,13 @@ import dev.architectury.event.events.common.PlayerEvent;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.minecraft.server.MinecraftServer;
 
 import java.io.File;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class UltraEconomy implements ModInitializer {
   public static final String MOD_ID = "ultraeconomy";
@@ -61,24 +69,48 @@ public class UltraEconomy implements ModInitializer {
     lang.init();
     Currencies.init();
     DatabaseFactory.init(config.getDatabase());
+    UltraEconomyAsyncApi.init();
+    BalTopCacheManager.init();
+    LeaderboardManager.init();
+    PlayerIndexManager.init();
   }
 
   public void events() {
-    PlayerEvent.PLAYER_JOIN.register((player) -> runAsync(() -> {
-      Account account = DatabaseFactory.INSTANCE.getAccount(player.getUuid());
-      account.setPlayerName(player.getGameProfile().getName());
-      DatabaseFactory.ACCOUNTS.put(player.getUuid(), account);
-      account.fix();
-      DatabaseFactory.INSTANCE.saveOrUpdateAccount(account);
-    }));
-
-    PlayerEvent.PLAYER_QUIT.register((player) -> runAsync(() -> {
-      Account account = DatabaseFactory.INSTANCE.getCachedAccount(player.getUuid());
-      if (account != null) {
+    PlayerEvent.PLAYER_JOIN.register((player) -> {
+      PlayerLocaleManager.bind(player);
+      PlayerMessageQueueManager.subscribe(player.getUuid());
+      runAsync(() -> {
+        Account account = DatabaseFactory.INSTANCE.getAccount(player.getUuid());
+        account.setPlayerName(player.getGameProfile().getName());
+        PlayerIndexManager.put(player.getUuid(), account.getPlayerName());
+        // Se vuelve a poner para fijarla: si ya estaba cargada como offline, ahora pesa 0 y no expira
+        DatabaseFactory.ACCOUNTS.put(player.getUuid(), account);
+        account.fix();
         DatabaseFactory.INSTANCE.saveOrUpdateAccount(account);
-        DatabaseFactory.ACCOUNTS.invalidate(player.getUuid());
-      }
-    }));
+        // Movimientos recibidos mientras estaba desconectado
+        DatabaseFactory.INSTANCE.applyPendingTransactions(List.of(player.getUuid()));
+        LeaderboardManager.track(account);
+      });
+    });
+
+    PlayerEvent.PLAYER_QUIT.register((player) -> {
+      PlayerLocaleManager.unbind(player.getUuid());
+      PlayerMessageQueueManager.unsubscribe(player.getUuid());
+      runAsync(() -> {
+        Account account = DatabaseFactory.INSTANCE.getCachedAccount(player.getUuid());
+        if (account != null) {
+          // invalidate no avisa al listener de expulsión, los balances pendientes se escriben antes
+          try {
+            DatabaseFactory.INSTANCE.getWriteBehind().flush(player.getUuid());
+          } catch (Exception e) {
+            CobbleUtils.LOGGER.error(MOD_ID, "Error flushing the balances of " + player.getUuid() + " on quit");
+            e.printStackTrace();
+          }
+          DatabaseFactory.INSTANCE.saveOrUpdateAccount(account);
+          DatabaseFactory.ACCOUNTS.invalidate(player.getUuid());
+        }
+      });
+    });
 
     ServerLifecycleEvents.SERVER_STARTED.register((server) -> {
       UltraEconomy.server = server;
@@ -86,24 +118,32 @@ public class UltraEconomy implements ModInitializer {
     });
 
     ServerLifecycleEvents.SERVER_STOPPING.register((server) -> {
+      UltraEconomyAsyncApi.shutdown();
       DatabaseFactory.INSTANCE.flushCache();
       DatabaseFactory.INSTANCE.disconnect();
+      DatabaseFactory.shutdown();
       webModule.stop();
       CobbleUtils.shutdownAndAwait(ULTRA_ECONOMY_EXECUTOR);
-      CobbleUtils.shutdownAndAwait(PlayerMessageQueueManager.SCHEDULER);
+      LeaderboardManager.shutdown();
     });
 
+    // Las notificaciones en cola se envían desde el hilo del servidor
+    ServerTickEvents.END_SERVER_TICK.register(PlayerMessageQueueManager::tick);
+
     CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> Register.register(dispatcher));
   }
 
   private void tasks() {
     // Aquí puedes agregar tareas programadas si es necesario
-    ULTRA_ECONOMY_SCHEDULER.scheduleAtFixedRate(() -> DatabaseFactory.ACCOUNTS.asMap().values().forEach(account -> DatabaseFactory.INSTANCE.saveOrUpdateAccount(account)), 60, 30, TimeUnit.SECONDS);
-
+    // Los balances modificados se guardan con DatabaseClient#getWriteBehind()
     ULTRA_ECONOMY_SCHEDULER.scheduleAtFixedRate(() -> DatabaseFactory.INSTANCE.createBackUp(), 1, 1, TimeUnit.HOURS);
   }
 
   public static CompletableFuture<?> runAsync(Runnable task) {
     return CobbleUtils.runAsync(task, ULTRA_ECONOMY_EXECUTOR);
   }
+
+  public static <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+    return CompletableFuture.supplyAsync(task, ULTRA_ECONOMY_EXECUTOR);
+  }
 }
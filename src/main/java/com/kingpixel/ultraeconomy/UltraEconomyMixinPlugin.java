@@ -1,5 +1,6 @@
 package com.kingpixel.ultraeconomy;
 
+import com.kingpixel.ultraeconomy.mixins.ServerPlayerEntityMixin;
 import com.kingpixel.ultraeconomy.mixins.UserCacheMixin;
 import net.fabricmc.loader.api.FabricLoader;
 import org.objectweb.asm.tree.ClassNode;
@@ -28,7 +29,8 @@ public class UltraEconomyMixinPlugin implements IMixinConfigPlugin {
   @Override
   public boolean shouldApplyMixin(String targetClassName, String mixinClassName) {
 
-    if (mixinClassName.equals(UserCacheMixin.class.getName())) {
+    if (mixinClassName.equals(UserCacheMixin.class.getName())
+      || mixinClassName.equals(ServerPlayerEntityMixin.class.getName())) {
       return true;
     }
 
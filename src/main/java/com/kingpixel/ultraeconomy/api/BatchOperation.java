@@ -0,0 +1,198 @@
+package com.kingpixel.ultraeconomy.api;
+
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.database.TransactionResult;
+import com.kingpixel.ultraeconomy.database.TransactionType;
+import com.kingpixel.ultraeconomy.exceptions.UnknownCurrencyException;
+import com.kingpixel.ultraeconomy.manager.PlayerMessageQueueManager;
+import com.kingpixel.ultraeconomy.manager.PlayerMessageQueueManager.NotificationType;
+import com.kingpixel.ultraeconomy.models.Currency;
+import com.kingpixel.ultraeconomy.services.VaultService;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Many deposits, withdrawals and balance sets across players and currencies applied in one pass.
+ * <p>
+ * Every operation is applied in memory, the journal rows are appended together and the changed
+ * balances are written with a single bulk upsert. Each player gets one notification per currency
+ * and kind of operation with the total amount, instead of one per operation.
+ * <pre>{@code
+ * UltraEconomyApi.batch()
+ *   .deposit(uuid1, "coins", BigDecimal.TEN)
+ *   .deposit(uuid2, "coins", BigDecimal.TEN)
+ *   .execute()
+ *   .thenAccept(result -> ...);
+ * }</pre>
+ */
+public class BatchOperation {
+  private final List<Operation> operations = new ArrayList<>();
+  private boolean notifications = UltraEconomy.config.isNotifications();
+  private boolean executed;
+
+  /**
+   * A single operation of the batch
+   *
+   * @param uuid     The player
+   * @param currency The currency
+   * @param amount   The amount, or the new balance for SET
+   * @param type     DEPOSIT, WITHDRAW or SET
+   */
+  public record Operation(UUID uuid, Currency currency, BigDecimal amount, TransactionType type) {
+  }
+
+  BatchOperation() {
+  }
+
+  public BatchOperation deposit(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
+    return add(uuid, currency, amount, TransactionType.DEPOSIT);
+  }
+
+  public BatchOperation withdraw(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
+    return add(uuid, currency, amount, TransactionType.WITHDRAW);
+  }
+
+  public BatchOperation setBalance(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
+    return add(uuid, currency, amount, TransactionType.SET);
+  }
+
+  /**
+   * Send (or not) the notifications of the batch, by default the {@code notifications} option of the config
+   */
+  public BatchOperation notifications(boolean notifications) {
+    this.notifications = notifications;
+    return this;
+  }
+
+  public int size() {
+    return operations.size();
+  }
+
+  private BatchOperation add(UUID uuid, String currency, BigDecimal amount, TransactionType type) {
+    if (executed) throw new IllegalStateException("The batch was already executed");
+    // getCurrency devuelve la moneda por defecto si no existe, aquí se rechaza
+    Currency c = Currencies.getCurrencyMap().get(currency);
+    if (c == null) throw new UnknownCurrencyException(currency);
+    operations.add(new Operation(uuid, c, c.normalize(amount), type));
+    return this;
+  }
+
+  /**
+   * Apply every operation off the server thread
+   *
+   * @return The status of every operation, in the order they were added
+   */
+  public CompletableFuture<Result> execute() {
+    if (executed) throw new IllegalStateException("The batch was already executed");
+    executed = true;
+    List<Operation> snapshot = List.copyOf(operations);
+    return UltraEconomy.supplyAsync(() -> apply(snapshot));
+  }
+
+  private Result apply(List<Operation> operations) {
+    TransactionResult[] results = new TransactionResult[operations.size()];
+    List<Operation> stored = new ArrayList<>(operations.size());
+    List<Integer> storedIndexes = new ArrayList<>(operations.size());
+    for (int i = 0; i < operations.size(); i++) {
+      Operation operation = operations.get(i);
+      // Vault lleva su propio saldo de la moneda principal, va operación a operación
+      if (VaultService.isPresent() && operation.currency().equals(Currencies.getDefaultCurrency())) {
+        results[i] = applyVault(operation);
+      } else {
+        stored.add(operation);
+        storedIndexes.add(i);
+      }
+    }
+    List<TransactionResult> storedResults = DatabaseFactory.INSTANCE.applyBatch(stored);
+    for (int i = 0; i < storedResults.size(); i++) {
+      results[storedIndexes.get(i)] = storedResults.get(i);
+    }
+    Result result = new Result(List.of(results));
+    if (notifications) notify(operations, result);
+    return result;
+  }
+
+  private static TransactionResult applyVault(Operation operation) {
+    UUID uuid = operation.uuid();
+    String currency = operation.currency().getId();
+    BigDecimal amount = operation.amount();
+    boolean result = switch (operation.type()) {
+      case DEPOSIT -> VaultService.deposit(uuid, currency, amount);
+      case WITHDRAW -> VaultService.tryWithdraw(uuid, currency, amount);
+      case SET -> {
+        VaultService.setBalance(uuid, currency, amount);
+        yield true;
+      }
+      default -> false;
+    };
+    if (!result) {
+      return operation.type() == TransactionType.WITHDRAW ? TransactionResult.INSUFFICIENT_FUNDS
+        : TransactionResult.FAILED;
+    }
+    DatabaseFactory.INSTANCE.setBalance(uuid, operation.currency(), VaultService.getBalance(uuid, currency));
+    return TransactionResult.SUCCESS;
+  }
+
+  private record NotificationKey(UUID uuid, Currency currency, TransactionType type) {
+  }
+
+  private static final class NotificationTotal {
+    private BigDecimal amount;
+    private int count;
+  }
+
+  // Una notificación por jugador, moneda y tipo con el total (o el último valor en SET) y las operaciones juntadas
+  private static void notify(List<Operation> operations, Result result) {
+    Map<NotificationKey, NotificationTotal> totals = new LinkedHashMap<>();
+    for (int i = 0; i < operations.size(); i++) {
+      Operation operation = operations.get(i);
+      if (!result.get(i).isSuccess()) continue;
+      var key = new NotificationKey(operation.uuid(), operation.currency(), operation.type());
+      NotificationTotal total = totals.computeIfAbsent(key, k -> new NotificationTotal());
+      total.amount = total.amount == null || operation.type() == TransactionType.SET ? operation.amount()
+        : total.amount.add(operation.amount());
+      total.count++;
+    }
+    totals.forEach((key, total) -> {
+      var type = switch (key.type()) {
+        case DEPOSIT -> NotificationType.DEPOSIT;
+        case WITHDRAW -> NotificationType.WITHDRAW;
+        default -> NotificationType.SET_BALANCE;
+      };
+      PlayerMessageQueueManager.notify(key.uuid(), type, key.currency(), total.amount, null, total.count);
+    });
+  }
+
+  /**
+   * Status of every operation of a batch
+   */
+  @Getter
+  public static class Result {
+    private final List<TransactionResult> results;
+    private final int successCount;
+
+    private Result(List<TransactionResult> results) {
+      this.results = results;
+      this.successCount = (int) results.stream().filter(TransactionResult::isSuccess).count();
+    }
+
+    /**
+     * @param index The position of the operation in the batch
+     *
+     * @return The status of that operation
+     */
+    public TransactionResult get(int index) {
+      return results.get(index);
+    }
+
+    public boolean isSuccess() {
+      return successCount == results.size();
+    }
+  }
+}
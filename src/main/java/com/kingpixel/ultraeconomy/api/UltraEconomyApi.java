@@ -1,31 +1,39 @@
 package com.kingpixel.ultraeconomy.api;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
 import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.cobbleutils.command.suggests.CobbleUtilsSuggests;
 import com.kingpixel.ultraeconomy.UltraEconomy;
 import com.kingpixel.ultraeconomy.config.Currencies;
 import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.database.TransactionResult;
 import com.kingpixel.ultraeconomy.exceptions.UnknownCurrencyException;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
+import com.kingpixel.ultraeconomy.manager.PlayerIndexManager;
+import com.kingpixel.ultraeconomy.manager.PlayerLocaleManager;
 import com.kingpixel.ultraeconomy.manager.PlayerMessageQueueManager;
+import com.kingpixel.ultraeconomy.manager.PlayerMessageQueueManager.NotificationType;
+import com.kingpixel.ultraeconomy.metrics.MetricsRegistry;
 import com.kingpixel.ultraeconomy.models.Account;
 import com.kingpixel.ultraeconomy.models.Currency;
-import com.kingpixel.ultraeconomy.placeholders.PlaceHoldersPrefix;
 import com.kingpixel.ultraeconomy.services.VaultService;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.util.UserCache;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
 import java.math.BigDecimal;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Carlos Varas Alonso - 23/09/2025 20:50
  */
 public class UltraEconomyApi {
+  private static final long BLOCKING_WARNING_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+  private static final AtomicLong lastBlockingWarning = new AtomicLong();
+
   /**
    * Get the account of a target by UUID
    *
@@ -33,6 +41,7 @@ public class UltraEconomyApi {
    * @return the account
    */
   public static Account getAccount(@NotNull UUID playerUUID) {
+    checkBlocking("getAccount", playerUUID);
     return DatabaseFactory.INSTANCE.getAccount(playerUUID);
   }
 
@@ -43,40 +52,70 @@ public class UltraEconomyApi {
    * @return the account
    */
   public static Account getAccount(@NotNull String playerName) {
-    UserCache userCache = CobbleUtils.server.getUserCache();
-    if (userCache == null) return null;
-    var profile = userCache.findByName(playerName);
-    return profile.map(gameProfile -> getAccount(gameProfile.getId())).orElse(null);
+    UUID uuid = getPlayerUUID(playerName);
+    return uuid == null ? null : getAccount(uuid);
+  }
+
+  /**
+   * Get the UUID of an account by name, ignoring case
+   *
+   * @param playerName the target's name
+   * @return the UUID, or null if there is no account with that name
+   */
+  public static UUID getPlayerUUID(@NotNull String playerName) {
+    return PlayerIndexManager.getUUID(playerName);
   }
 
   public static boolean withdraw(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
-    if (!hasEnoughBalance(uuid, currency, amount)) return false;
-    long start = System.currentTimeMillis();
-    boolean result;
-    Currency c = getCurrency(currency);
-    if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
-      result = VaultService.withdraw(uuid, currency, amount);
-      DatabaseFactory.INSTANCE.setBalance(uuid, c, VaultService.getBalance(uuid, currency));
+    return tryWithdraw(uuid, currency, amount).isSuccess();
+  }
+
+  /**
+   * Withdraw an amount only if the target has enough balance, the check and the debit are a single atomic step
+   *
+   * @param uuid     the target's UUID
+   * @param currency the currency
+   * @param amount   the amount
+   * @return the result of the withdrawal
+   */
+  public static TransactionResult tryWithdraw(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
+    long start = System.nanoTime();
+    try {
+      Currency c = getCurrency(currency);
+      amount = c.normalize(amount);
+      if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
+        if (!VaultService.tryWithdraw(uuid, currency, amount)) {
+          if (UltraEconomy.config.isNotifications()) {
+            PlayerMessageQueueManager.notify(uuid, NotificationType.NO_MONEY, c, amount, null, 1);
+          }
+          return TransactionResult.INSUFFICIENT_FUNDS;
+        }
+        DatabaseFactory.INSTANCE.setBalance(uuid, c, VaultService.getBalance(uuid, currency));
+        return TransactionResult.SUCCESS;
+      }
+      checkBlocking("tryWithdraw", uuid);
+      TransactionResult result = DatabaseFactory.INSTANCE.tryWithdraw(uuid, c, amount);
+      if (UltraEconomy.config.isNotifications()) {
+        var type = switch (result) {
+          case SUCCESS -> NotificationType.WITHDRAW;
+          case INSUFFICIENT_FUNDS -> NotificationType.NO_MONEY;
+          default -> null;
+        };
+        if (type != null) PlayerMessageQueueManager.notify(uuid, type, c, amount, null, 1);
+      }
       return result;
+    } finally {
+      MetricsRegistry.record(MetricsRegistry.WITHDRAW, System.nanoTime() - start);
     }
-    result = DatabaseFactory.INSTANCE.withdraw(uuid, c, amount);
-    if (UltraEconomy.config.isNotifications()) {
-      var message = UltraEconomy.lang.getMessageWithdraw();
-      message.sendMessage(uuid, UltraEconomy.lang.getPrefix(), false, false, null,
-        message.getRawMessage().replace(PlaceHoldersPrefix.PLACEHOLDER_AMOUNT, c.format(amount)));
-    }
-    aggressiveSave(uuid);
-    long end = System.currentTimeMillis();
-    if (UltraEconomy.config.isDebug()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Withdraw took " + (end - start) + "ms");
-    }
-
-    return result;
   }
 
-  private static void aggressiveSave(UUID playerUUID) {
-    var account = DatabaseFactory.ACCOUNTS.getIfPresent(playerUUID);
-    if (account != null) saveAccount(account);
+  /**
+   * Start a batch of operations, applied together with one bulk write and merged notifications
+   *
+   * @return the batch builder
+   */
+  public static BatchOperation batch() {
+    return new BatchOperation();
   }
 
   /**
@@ -95,7 +134,7 @@ public class UltraEconomyApi {
    * @return the primary currency
    */
   private static Currency getPrimaryCurrency() {
-    return Currencies.DEFAULT_CURRENCY;
+    return Currencies.getDefaultCurrency();
   }
 
   /**
@@ -107,30 +146,24 @@ public class UltraEconomyApi {
    * @return true if successful, false otherwise
    */
   public static boolean deposit(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
-    long start = System.currentTimeMillis();
-    boolean result;
-    Currency c = getCurrency(currency);
-    if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
-      result = VaultService.deposit(uuid, currency, amount);
-      DatabaseFactory.INSTANCE.setBalance(uuid, c, VaultService.getBalance(uuid, currency));
+    long start = System.nanoTime();
+    try {
+      boolean result;
+      Currency c = getCurrency(currency);
+      amount = c.normalize(amount);
+      if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
+        result = VaultService.deposit(uuid, currency, amount);
+        DatabaseFactory.INSTANCE.setBalance(uuid, c, VaultService.getBalance(uuid, currency));
+        return result;
+      }
+      result = DatabaseFactory.INSTANCE.deposit(uuid, c, amount);
+      if (UltraEconomy.config.isNotifications()) {
+        PlayerMessageQueueManager.notify(uuid, NotificationType.DEPOSIT, c, amount, null, 1);
+      }
       return result;
+    } finally {
+      MetricsRegistry.record(MetricsRegistry.DEPOSIT, System.nanoTime() - start);
     }
-    result = DatabaseFactory.INSTANCE.deposit(uuid, c, amount);
-    if (UltraEconomy.config.isNotifications()) {
-      var message = UltraEconomy.lang.getMessageDeposit();
-      runMessage(
-        uuid,
-        () -> message.sendMessage(uuid, UltraEconomy.lang.getPrefix(), false, false, null,
-          message.getRawMessage().replace(PlaceHoldersPrefix.PLACEHOLDER_AMOUNT, c.format(amount,
-            getLocale(uuid))))
-      );
-    }
-    aggressiveSave(uuid);
-    long end = System.currentTimeMillis();
-    if (UltraEconomy.config.isDebug()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Deposit took " + (end - start) + "ms");
-    }
-    return result;
   }
 
   /**
@@ -142,29 +175,23 @@ public class UltraEconomyApi {
    * @return the new balance, or null if the currency does not exist
    */
   public static @Nullable BigDecimal setBalance(@NotNull UUID uuid, @NotNull String currency, BigDecimal amount) {
-    long start = System.currentTimeMillis();
-    BigDecimal result;
-    if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
-      VaultService.setBalance(uuid, currency, amount);
-    }
-    Currency c = getCurrency(currency);
-    result = DatabaseFactory.INSTANCE.setBalance(uuid, c, amount);
-    if (UltraEconomy.config.isNotifications()) {
-      var message = UltraEconomy.lang.getMessageSetBalance();
-      runMessage(
-        uuid,
-        () -> message.sendMessage(uuid, UltraEconomy.lang.getPrefix(), false, false, null,
-          message.getRawMessage().replace(PlaceHoldersPrefix.PLACEHOLDER_AMOUNT, c.format(amount,
-            getLocale(uuid))))
-      );
-    }
-    aggressiveSave(uuid);
+    long start = System.nanoTime();
+    try {
+      BigDecimal result;
+      Currency c = getCurrency(currency);
+      amount = c.normalize(amount);
+      if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
+        VaultService.setBalance(uuid, currency, amount);
+      }
+      result = DatabaseFactory.INSTANCE.setBalance(uuid, c, amount);
+      if (UltraEconomy.config.isNotifications()) {
+        PlayerMessageQueueManager.notify(uuid, NotificationType.SET_BALANCE, c, amount, null, 1);
+      }
 
-    long end = System.currentTimeMillis();
-    if (UltraEconomy.config.isDebug()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Get balance took " + (end - start) + "ms");
+      return result;
+    } finally {
+      MetricsRegistry.record(MetricsRegistry.SET_BALANCE, System.nanoTime() - start);
     }
-    return result;
   }
 
   /**
@@ -175,14 +202,31 @@ public class UltraEconomyApi {
    * @return the balance, or null if the currency does not exist
    */
   public static BigDecimal getBalance(@NotNull UUID uuid, @NotNull String currency) {
-    if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
-      return VaultService.getBalance(uuid, currency);
-    } else {
-      Currency c = getCurrency(currency);
-      return DatabaseFactory.INSTANCE.getBalance(uuid, c);
+    long start = System.nanoTime();
+    try {
+      if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
+        return VaultService.getBalance(uuid, currency);
+      } else {
+        Currency c = getCurrency(currency);
+        checkBlocking("getBalance", uuid);
+        return DatabaseFactory.INSTANCE.getBalance(uuid, c);
+      }
+    } finally {
+      MetricsRegistry.record(MetricsRegistry.GET_BALANCE, System.nanoTime() - start);
     }
   }
 
+  /**
+   * Get a target's position in the leaderboard of a currency, served from memory
+   *
+   * @param uuid     the target's UUID
+   * @param currency the currency
+   * @return the position starting at 1, or -1 if the target is not ranked or the leaderboard is still loading
+   */
+  public static int getRank(@NotNull UUID uuid, @NotNull String currency) {
+    return LeaderboardManager.getRank(uuid, getCurrency(currency));
+  }
+
   private static boolean isPrimaryCurrency(String currency) {
     Currency c = getCurrency(currency);
     return c.equals(getPrimaryCurrency());
@@ -197,175 +241,109 @@ public class UltraEconomyApi {
    * @return true if the target has enough balance
    */
   public static boolean hasEnoughBalance(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
-    long start = System.currentTimeMillis();
     Currency c = getCurrency(currency);
+    amount = c.normalize(amount);
     boolean result;
     if (VaultService.isPresent() && isPrimaryCurrency(currency)) {
       result = VaultService.hashEnoughBalance(uuid, currency, amount);
     } else {
+      checkBlocking("hasEnoughBalance", uuid);
       result = DatabaseFactory.INSTANCE.hasEnoughBalance(uuid, c, amount);
     }
     if (UltraEconomy.config.isNotifications() && !result) {
-      var message = UltraEconomy.lang.getMessageNoMoney();
-      runMessage(
-        uuid,
-        () -> message.sendMessage(uuid, UltraEconomy.lang.getPrefix(), false, false, null,
-          message.getRawMessage().replace(PlaceHoldersPrefix.PLACEHOLDER_AMOUNT, c.format(amount,
-            getLocale(uuid))))
-      );
-    }
-    long end = System.currentTimeMillis();
-    if (UltraEconomy.config.isDebug()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "hasEnoughBalance took " + (end - start) + "ms");
+      PlayerMessageQueueManager.notify(uuid, NotificationType.NO_MONEY, c, amount, null, 1);
     }
     return result;
   }
 
 
   public static boolean transfer(UUID executor, UUID target, String currency, BigDecimal amount) {
-    long start = System.currentTimeMillis();
-    Currency curr = getCurrency(currency);
-    String nameTarget = CobbleUtilsSuggests.SUGGESTS_PLAYER_OFFLINE_AND_ONLINE.getPlayerNameWithUUID(target);
-    String nameExecutor = CobbleUtilsSuggests.SUGGESTS_PLAYER_OFFLINE_AND_ONLINE.getPlayerNameWithUUID(executor);
-    if (nameExecutor == null || nameExecutor.isEmpty() || nameTarget == null || nameTarget.isEmpty()) {
-      if (UltraEconomy.config.isDebug()) {
-        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Executor or target name is null in transfer");
+    long start = System.nanoTime();
+    try {
+      Currency curr = getCurrency(currency);
+      amount = curr.normalize(amount);
+      String nameTarget = CobbleUtilsSuggests.SUGGESTS_PLAYER_OFFLINE_AND_ONLINE.getPlayerNameWithUUID(target);
+      String nameExecutor = CobbleUtilsSuggests.SUGGESTS_PLAYER_OFFLINE_AND_ONLINE.getPlayerNameWithUUID(executor);
+      if (nameExecutor == null || nameExecutor.isEmpty() || nameTarget == null || nameTarget.isEmpty()) {
+        if (UltraEconomy.config.isDebug()) {
+          CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Executor or target name is null in transfer");
+        }
+        return false;
       }
-      return false;
-    }
-    if (!curr.isTransferable()) {
-      UltraEconomy.lang.getMessageCurrencyNotTransferable().sendMessage(
-        executor,
-        UltraEconomy.lang.getPrefix(),
-        false
-      );
-      return false;
-    }
-    String currId = curr.getId();
-    if (!hasEnoughBalance(executor, currId, amount)) {
-      if (UltraEconomy.config.isDebug()) {
-        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Not enough balance for executor in transfer");
+      if (!curr.isTransferable()) {
+        UltraEconomy.lang.getMessageCurrencyNotTransferable().sendMessage(
+          executor,
+          UltraEconomy.lang.getPrefix(),
+          false
+        );
+        return false;
       }
-      return false;
-    }
-    if (!withdraw(executor, currId, amount)) {
-      deposit(executor, currId, amount);
-      if (UltraEconomy.config.isDebug()) {
-        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Failed to withdraw from executor in transfer");
+      String currId = curr.getId();
+      TransactionResult result;
+      if (VaultService.isPresent() && isPrimaryCurrency(currId)) {
+        result = tryWithdraw(executor, currId, amount);
+        if (result.isSuccess() && !deposit(target, currId, amount)) {
+          deposit(executor, currId, amount);
+          result = TransactionResult.FAILED;
+        }
+      } else {
+        checkBlocking("transfer", executor);
+        result = DatabaseFactory.INSTANCE.transfer(executor, target, curr, amount);
+        if (result == TransactionResult.INSUFFICIENT_FUNDS && UltraEconomy.config.isNotifications()) {
+          PlayerMessageQueueManager.notify(executor, NotificationType.NO_MONEY, curr, amount, null, 1);
+        }
       }
-      return false;
-    }
-    if (!deposit(target, currId, amount)) {
-      deposit(executor, currId, amount);
-      return false;
-    }
-    if (UltraEconomy.config.isNotifications()) {
-      var messageSender = UltraEconomy.lang.getMessagePaySuccessSender();
-      runMessage(
-        executor,
-        () -> messageSender.sendMessage(executor, UltraEconomy.lang.getPrefix(), false, false, null,
-          messageSender.getRawMessage()
-            .replace(PlaceHoldersPrefix.PLACEHOLDER_AMOUNT, curr.format(amount, getLocale(executor)))
-            .replace("%player%", nameTarget)
-        )
-      );
-
-      var messageReceiver = UltraEconomy.lang.getMessagePaySuccessReceiver();
-
-      runMessage(
-        target,
-        () -> messageReceiver.sendMessage(target, UltraEconomy.lang.getPrefix(), false, false, null,
-          messageReceiver.getRawMessage()
-            .replace(PlaceHoldersPrefix.PLACEHOLDER_AMOUNT, curr.format(amount, getLocale(target)))
-            .replace("%player%", nameExecutor)
-        )
-      );
-    }
-    aggressiveSave(executor);
-    aggressiveSave(target);
-    long end = System.currentTimeMillis();
-    if (UltraEconomy.config.isDebug()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Pay took " + (end - start) + "ms");
+      if (!result.isSuccess()) {
+        if (UltraEconomy.config.isDebug()) {
+          CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Transfer from " + executor + " to " + target + " failed: " + result);
+        }
+        return false;
+      }
+      if (UltraEconomy.config.isNotifications()) {
+        PlayerMessageQueueManager.notify(executor, NotificationType.PAY_SENT, curr, amount, nameTarget, 1);
+        PlayerMessageQueueManager.notify(target, NotificationType.PAY_RECEIVED, curr, amount, nameExecutor, 1);
+      }
+      return true;
+    } finally {
+      MetricsRegistry.record(MetricsRegistry.TRANSFER, System.nanoTime() - start);
     }
-    return true;
   }
 
   /**
-   * Save an account to the database (This is done automatically when modifying the account)
+   * Save an account to the database (Modified balances are saved automatically by the write-behind buffer)
    *
    * @param account the account
    */
   public static void saveAccount(Account account) {
-    long start = System.currentTimeMillis();
     DatabaseFactory.INSTANCE.saveOrUpdateAccount(account);
-    long end = System.currentTimeMillis();
-    if (UltraEconomy.config.isDebug()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Save account took " + (end - start) + "ms");
-    }
   }
 
   public static void saveAccountSync(Account account) {
-    long start = System.currentTimeMillis();
     DatabaseFactory.INSTANCE.saveOrUpdateAccountSync(account);
-    long end = System.currentTimeMillis();
-    if (UltraEconomy.config.isDebug()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Save account sync took " + (end - start) + "ms");
-    }
   }
 
   public static Locale getLocale(UUID playerUUID) {
-    return getLocale(UltraEconomy.server.getPlayerManager().getPlayer(playerUUID));
+    return PlayerLocaleManager.getLocale(playerUUID);
   }
 
-  private static final Cache<String, Locale> localeCache = Caffeine.newBuilder()
-    .maximumSize(100)
-    .build();
-
   public static Locale getLocale(ServerPlayerEntity player) {
-    // Locale del servidor como fallback
-    Locale serverLocale = Locale.US; // ajusta según tu implementación
-
-    if (player == null) {
-      if (UltraEconomy.config.isDebug()) {
-        CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Player is null when getting locale, returning server locale");
-      }
-      return serverLocale;
-    }
-
-    // Obtener el idioma enviado por el cliente
-    String localeStr = player.getClientOptions().language();
-
-    if (localeStr == null || localeStr.isEmpty()) {
-      if (UltraEconomy.config.isDebug()) {
-        CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Player locale string is null or empty, returning server locale");
-      }
-      return serverLocale;
-    }
-    return localeCache.get(localeStr, key -> {
-      try {
-        Locale playerLocale = Locale.forLanguageTag(localeStr.replace('_', '-'));
-        if (UltraEconomy.config.isDebug()) {
-          CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Player locale: " + playerLocale);
-        }
-        return playerLocale;
-      } catch (Exception e) {
-        if (UltraEconomy.config.isDebug()) {
-          CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error parsing player locale: " + localeStr + ", returning server locale");
-          e.printStackTrace();
-        }
-        return serverLocale;
-      }
-    });
-
+    return PlayerLocaleManager.getLocale(player);
   }
 
-
-  private static void runMessage(UUID playerUUID, Runnable runnable) {
-    if (UltraEconomy.config.isQueueMessages()) {
-      PlayerMessageQueueManager.enqueue(playerUUID, runnable);
-    } else {
-      runnable.run();
-    }
+  /**
+   * Warn (at most every 30 seconds) when a sync call is about to load an account from the database on the
+   * server thread, those calls stall the tick and should use {@link UltraEconomyAsyncApi}
+   */
+  private static void checkBlocking(String method, UUID uuid) {
+    if (!UltraEconomy.config.isWarnBlockingCalls()) return;
+    MinecraftServer server = UltraEconomy.server;
+    if (server == null || !server.isOnThread() || DatabaseFactory.INSTANCE.getCachedAccount(uuid) != null) return;
+    long now = System.currentTimeMillis();
+    long last = lastBlockingWarning.get();
+    if (now - last < BLOCKING_WARNING_INTERVAL || !lastBlockingWarning.compareAndSet(last, now)) return;
+    CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "UltraEconomyApi." + method + " is loading " + uuid
+      + " from the database on the server thread, use UltraEconomyAsyncApi instead");
+    if (UltraEconomy.config.isDebug()) new Throwable("Blocking call to UltraEconomyApi." + method).printStackTrace();
   }
 
   public static boolean existsPlayerWithName(String target) {
@@ -0,0 +1,123 @@
+package com.kingpixel.ultraeconomy.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.database.TransactionResult;
+import com.kingpixel.ultraeconomy.models.Account;
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking version of {@link UltraEconomyApi}, safe to call from the server thread.
+ * <p>
+ * When every account involved is cached the operation only touches memory, so it runs on the
+ * calling thread and the returned future is already complete. Otherwise it runs on a dedicated
+ * I/O pool ({@code asyncApiThreads} threads, resized on reload) and the caller never waits for the database.
+ */
+public class UltraEconomyAsyncApi {
+  private static final ThreadPoolExecutor IO_EXECUTOR = (ThreadPoolExecutor) Executors.newFixedThreadPool(
+    threads(), new ThreadFactoryBuilder()
+      .setNameFormat("ultra economy-io-%d")
+      .setDaemon(true)
+      .build()
+  );
+
+  /**
+   * Apply {@code asyncApiThreads}, called on every load so a reload resizes the pool without losing tasks
+   */
+  public static void init() {
+    int threads = threads();
+    // El máximo nunca puede quedar por debajo del núcleo
+    if (threads > IO_EXECUTOR.getMaximumPoolSize()) {
+      IO_EXECUTOR.setMaximumPoolSize(threads);
+      IO_EXECUTOR.setCorePoolSize(threads);
+    } else {
+      IO_EXECUTOR.setCorePoolSize(threads);
+      IO_EXECUTOR.setMaximumPoolSize(threads);
+    }
+  }
+
+  private static int threads() {
+    return Math.max(UltraEconomy.config.getAsyncApiThreads(), 1);
+  }
+
+  public static CompletableFuture<Account> getAccount(@NotNull UUID playerUUID) {
+    return run(() -> UltraEconomyApi.getAccount(playerUUID), playerUUID);
+  }
+
+  public static CompletableFuture<Account> getAccount(@NotNull String playerName) {
+    return CompletableFuture.supplyAsync(() -> UltraEconomyApi.getAccount(playerName), IO_EXECUTOR);
+  }
+
+  public static CompletableFuture<BigDecimal> getBalance(@NotNull UUID uuid, @NotNull String currency) {
+    return run(() -> UltraEconomyApi.getBalance(uuid, currency), uuid);
+  }
+
+  public static CompletableFuture<Boolean> hasEnoughBalance(@NotNull UUID uuid, @NotNull String currency,
+                                                            @NotNull BigDecimal amount) {
+    return run(() -> UltraEconomyApi.hasEnoughBalance(uuid, currency, amount), uuid);
+  }
+
+  public static CompletableFuture<Boolean> deposit(@NotNull UUID uuid, @NotNull String currency,
+                                                   @NotNull BigDecimal amount) {
+    return run(() -> UltraEconomyApi.deposit(uuid, currency, amount), uuid);
+  }
+
+  public static CompletableFuture<Boolean> withdraw(@NotNull UUID uuid, @NotNull String currency,
+                                                    @NotNull BigDecimal amount) {
+    return run(() -> UltraEconomyApi.withdraw(uuid, currency, amount), uuid);
+  }
+
+  public static CompletableFuture<TransactionResult> tryWithdraw(@NotNull UUID uuid, @NotNull String currency,
+                                                                 @NotNull BigDecimal amount) {
+    return run(() -> UltraEconomyApi.tryWithdraw(uuid, currency, amount), uuid);
+  }
+
+  public static CompletableFuture<BigDecimal> setBalance(@NotNull UUID uuid, @NotNull String currency,
+                                                         BigDecimal amount) {
+    return run(() -> UltraEconomyApi.setBalance(uuid, currency, amount), uuid);
+  }
+
+  public static CompletableFuture<Boolean> transfer(@NotNull UUID executor, @NotNull UUID target,
+                                                    @NotNull String currency, @NotNull BigDecimal amount) {
+    // Los nombres de los jugadores pueden salir de la caché de usuarios, siempre fuera del hilo del servidor
+    return CompletableFuture.supplyAsync(() -> UltraEconomyApi.transfer(executor, target, currency, amount),
+      IO_EXECUTOR);
+  }
+
+  public static CompletableFuture<Integer> getRank(@NotNull UUID uuid, @NotNull String currency) {
+    return run(() -> UltraEconomyApi.getRank(uuid, currency));
+  }
+
+  public static CompletableFuture<Void> saveAccount(Account account) {
+    return CompletableFuture.runAsync(() -> UltraEconomyApi.saveAccountSync(account), IO_EXECUTOR);
+  }
+
+  public static void shutdown() {
+    CobbleUtils.shutdownAndAwait(IO_EXECUTOR);
+  }
+
+  /**
+   * Run inline if every account is cached, on the I/O pool otherwise
+   */
+  private static <T> CompletableFuture<T> run(Supplier<T> task, UUID... accounts) {
+    for (UUID uuid : accounts) {
+      if (DatabaseFactory.INSTANCE.getCachedAccount(uuid) == null) {
+        return CompletableFuture.supplyAsync(task, IO_EXECUTOR);
+      }
+    }
+    try {
+      return CompletableFuture.completedFuture(task.get());
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+}
@@ -29,7 +29,7 @@ public class Register {
       base.executes(context -> {
         ServerPlayerEntity player = context.getSource().getPlayer();
         BalanceCommand.run(player == null ? null : player.getUuid(), context,
-          Currencies.DEFAULT_CURRENCY.getId());
+          Currencies.getDefaultCurrency().getId());
         return 1;
       });
 
@@ -41,6 +41,7 @@ public class Register {
       SetCommand.put(base);
       BaltopCommand.put(dispatcher, base);
       BackUpCommands.register(base);
+      MetricsCommand.put(base);
 
       dispatcher.register(base);
     }
@@ -0,0 +1,64 @@
+package com.kingpixel.ultraeconomy.commands.admin;
+
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.metrics.DatabaseMetrics;
+import com.kingpixel.ultraeconomy.metrics.LatencyHistogram;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * /money metrics [blocking|reset]: latency of the database calls and the calls that blocked the server thread
+ */
+public class MetricsCommand {
+  private static final int MAX_LINES = 10;
+
+  public static void put(LiteralArgumentBuilder<ServerCommandSource> base) {
+    base.then(
+      CommandManager.literal("metrics")
+        .requires(source -> source.hasPermissionLevel(2))
+        .executes(MetricsCommand::operations)
+        .then(CommandManager.literal("blocking").executes(MetricsCommand::blocking))
+        .then(CommandManager.literal("reset").executes(context -> {
+          DatabaseMetrics.reset();
+          context.getSource().sendMessage(Text.literal("§a[UltraEconomy] Metrics reset"));
+          return 1;
+        }))
+    );
+  }
+
+  private static int operations(CommandContext<ServerCommandSource> context) {
+    var source = context.getSource();
+    var operations = DatabaseMetrics.getOperations();
+    if (!UltraEconomy.config.isDatabaseMetrics() || operations.isEmpty()) {
+      source.sendMessage(Text.literal("§c[UltraEconomy] No database metrics, enable databaseMetrics in the config"));
+      return 0;
+    }
+    source.sendMessage(Text.literal("§6[UltraEconomy] Database calls §7(calls, p50, p99, max | server thread, blocking)"));
+    operations.forEach((name, metrics) -> {
+      LatencyHistogram latency = metrics.getLatency();
+      source.sendMessage(Text.literal(String.format(Locale.ROOT,
+        "§e%s§7: %d, %.2fms, %.2fms, %.2fms | %d, §c%d",
+        name, latency.getCount(), latency.getPercentileMillis(0.5), latency.getPercentileMillis(0.99),
+        latency.getMaxMillis(), metrics.getServerThreadLatency().getCount(), metrics.getBlockingCalls().sum())));
+    });
+    return 1;
+  }
+
+  private static int blocking(CommandContext<ServerCommandSource> context) {
+    var source = context.getSource();
+    List<DatabaseMetrics.BlockingCall> calls = DatabaseMetrics.getBlockingCalls();
+    source.sendMessage(Text.literal("§6[UltraEconomy] Calls that blocked the server thread for more than "
+      + UltraEconomy.config.getBlockingCallThreshold().toMillis() + "ms: " + calls.size()));
+    for (DatabaseMetrics.BlockingCall call : calls.subList(0, Math.min(calls.size(), MAX_LINES))) {
+      source.sendMessage(Text.literal(String.format(Locale.ROOT, "§e%s §c%.2fms §7%s",
+        call.operation(), call.millis(), call.caller())));
+    }
+    return 1;
+  }
+}
@@ -28,9 +28,8 @@ public class SetCommand {
             .then(
               CommandManager.argument("currency", StringArgumentType.string())
                 .suggests((context, builder) -> {
-                  var size = Currencies.CURRENCY_IDS.length;
-                  for (int i = 0; i < size; i++) {
-                    builder.suggest(Currencies.CURRENCY_IDS[i]);
+                  for (String currencyId : Currencies.getCurrencyIds()) {
+                    builder.suggest(currencyId);
                   }
                   return builder.buildFuture();
                 }).then(
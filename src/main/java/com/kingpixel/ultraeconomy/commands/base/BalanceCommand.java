@@ -33,14 +33,13 @@ public class BalanceCommand {
     return CommandManager.literal("balance")
       .executes(context -> {
         ServerPlayerEntity player = context.getSource().getPlayer();
-        run(player == null ? null : player.getUuid(), context, Currencies.DEFAULT_CURRENCY.getId());
+        run(player == null ? null : player.getUuid(), context, Currencies.getDefaultCurrency().getId());
         return 1;
       }).then(
         CommandManager.argument(KEY_CURRENCY, StringArgumentType.string())
           .suggests((context, builder) -> {
-            var size = Currencies.CURRENCY_IDS.length;
-            for (int i = 0; i < size; i++) {
-              builder.suggest(Currencies.CURRENCY_IDS[i]);
+            for (String currencyId : Currencies.getCurrencyIds()) {
+              builder.suggest(currencyId);
             }
             return builder.buildFuture();
           })
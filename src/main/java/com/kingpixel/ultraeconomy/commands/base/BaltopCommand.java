@@ -3,8 +3,10 @@ package com.kingpixel.ultraeconomy.commands.base;
 import com.kingpixel.cobbleutils.util.AdventureTranslator;
 import com.kingpixel.cobbleutils.util.PlayerUtils;
 import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
 import com.kingpixel.ultraeconomy.config.Currencies;
-import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.manager.BalTopCacheManager;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
 import com.kingpixel.ultraeconomy.models.Account;
 import com.kingpixel.ultraeconomy.models.Currency;
 import com.mojang.brigadier.CommandDispatcher;
@@ -17,6 +19,7 @@ import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.StringJoiner;
 
 /**
@@ -37,9 +40,8 @@ public class BaltopCommand {
       .then(
         CommandManager.argument(CURRENCY_ARG, StringArgumentType.string())
           .suggests((context, builder) -> {
-            var size = Currencies.CURRENCY_IDS.length;
-            for (int i = 0; i < size; i++) {
-              builder.suggest(Currencies.CURRENCY_IDS[i]);
+            for (String currencyId : Currencies.getCurrencyIds()) {
+              builder.suggest(currencyId);
             }
             return builder.buildFuture();
           })
@@ -56,14 +58,13 @@ public class BaltopCommand {
   private static LiteralArgumentBuilder<ServerCommandSource> get() {
     return CommandManager.literal("baltop")
       .executes(context -> {
-        run(context, Currencies.DEFAULT_CURRENCY.getId(), 1);
+        run(context, Currencies.getDefaultCurrency().getId(), 1);
         return 1;
       }).then(
         CommandManager.argument(CURRENCY_ARG, StringArgumentType.string())
           .suggests((context, builder) -> {
-            var size = Currencies.CURRENCY_IDS.length;
-            for (int i = 0; i < size; i++) {
-              builder.suggest(Currencies.CURRENCY_IDS[i]);
+            for (String currencyId : Currencies.getCurrencyIds()) {
+              builder.suggest(currencyId);
             }
             return builder.buildFuture();
           })
@@ -92,43 +93,49 @@ public class BaltopCommand {
         source.sendMessage(Text.literal("§c Currency not found: " + currencyId));
         return;
       }
-      List<Account> topAccounts = DatabaseFactory.INSTANCE.getTopBalances(currency, page,
-        UltraEconomy.config.getLimitTopPlayers());
+      int limit = UltraEconomy.config.getLimitTopPlayers();
+      Locale locale = UltraEconomyApi.getLocale(source.getPlayer());
+      Text output = BalTopCacheManager.get("command", currency, page, limit, locale,
+        () -> AdventureTranslator.toNative(render(currency, page, locale)));
 
-      StringJoiner joiner = new StringJoiner("\n");
-      joiner.add(UltraEconomy.lang.getMessageBalTopHeader()
-        .replace("%number%", String.valueOf(page == 0 ? 1 : page * UltraEconomy.config.getLimitTopPlayers())));
+      source.sendFeedback(() -> output, false);
+    });
+  }
 
-      if (topAccounts.isEmpty()) {
-        joiner.add(UltraEconomy.lang.getMessageBalTopEmpty());
-      } else {
-        int limit = UltraEconomy.config.getLimitTopPlayers();
-        int rank = (page - 1) * limit + 1;
-        int size = topAccounts.size();
-        if (size > limit) size = limit;
-        for (int i = 0; i < size; i++) {
-          Account account = topAccounts.get(i);
-          String line = UltraEconomy.lang.getMessageBalTopLine()
-            .replace("%rank%", Integer.toString(rank))
-            .replace("%player%", account.getPlayerName())
-            .replace("%balance%", currency.format(account.getBalance(currency)));
-          joiner.add(line);
-          rank++;
-        }
-      }
+  private static String render(Currency currency, int page, Locale locale) {
+    List<Account> topAccounts = LeaderboardManager.getTopBalances(currency, page,
+      UltraEconomy.config.getLimitTopPlayers());
 
-      int previousPage = Math.min(1, page - 1);
-      int nextPage = page + 1;
+    StringJoiner joiner = new StringJoiner("\n");
+    joiner.add(UltraEconomy.lang.getMessageBalTopHeader()
+      .replace("%number%", String.valueOf(page == 0 ? 1 : page * UltraEconomy.config.getLimitTopPlayers())));
 
-      joiner.add(UltraEconomy.lang.getMessageBalTopFooter()
-        .replace("%page%", Integer.toString(page))
-        .replace("%currency%", currency.getId())
-        .replace("%previous_page%", Integer.toString(previousPage))
-        .replace("%next_page%", Integer.toString(nextPage)));
-      String output = joiner.toString();
+    if (topAccounts.isEmpty()) {
+      joiner.add(UltraEconomy.lang.getMessageBalTopEmpty());
+    } else {
+      int limit = UltraEconomy.config.getLimitTopPlayers();
+      int rank = (page - 1) * limit + 1;
+      int size = topAccounts.size();
+      if (size > limit) size = limit;
+      for (int i = 0; i < size; i++) {
+        Account account = topAccounts.get(i);
+        String line = UltraEconomy.lang.getMessageBalTopLine()
+          .replace("%rank%", Integer.toString(rank))
+          .replace("%player%", account.getPlayerName())
+          .replace("%balance%", currency.format(account.getBalance(currency), locale));
+        joiner.add(line);
+        rank++;
+      }
+    }
 
-      source.sendFeedback(() -> AdventureTranslator.toNative(output), false);
-    });
-  }
+    int previousPage = Math.min(1, page - 1);
+    int nextPage = page + 1;
 
+    joiner.add(UltraEconomy.lang.getMessageBalTopFooter()
+      .replace("%page%", Integer.toString(page))
+      .replace("%currency%", currency.getId())
+      .replace("%previous_page%", Integer.toString(previousPage))
+      .replace("%next_page%", Integer.toString(nextPage)));
+    return joiner.toString();
+  }
 }
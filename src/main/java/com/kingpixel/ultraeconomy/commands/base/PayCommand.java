@@ -1,12 +1,10 @@
 package com.kingpixel.ultraeconomy.commands.base;
 
 import com.kingpixel.cobbleutils.api.PermissionApi;
-import com.kingpixel.cobbleutils.command.suggests.CobbleUtilsSuggests;
 import com.kingpixel.cobbleutils.util.PlayerUtils;
 import com.kingpixel.ultraeconomy.UltraEconomy;
 import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
 import com.kingpixel.ultraeconomy.config.Currencies;
-import com.kingpixel.ultraeconomy.database.DatabaseFactory;
 import com.kingpixel.ultraeconomy.models.Currency;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.FloatArgumentType;
@@ -41,9 +39,8 @@ public class PayCommand {
       .then(
         CommandManager.argument("currency", StringArgumentType.string())
           .suggests((context, builder) -> {
-            var size = Currencies.CURRENCY_IDS.length;
-            for (int i = 0; i < size; i++) {
-              builder.suggest(Currencies.CURRENCY_IDS[i]);
+            for (String currencyId : Currencies.getCurrencyIds()) {
+              builder.suggest(currencyId);
             }
             return builder.buildFuture();
           }).then(
@@ -63,10 +60,6 @@ public class PayCommand {
                     if (PlayerUtils.hasCooldownCommand(executor, "ultraeconomy.command.pay", UltraEconomy.config.getCommandCooldown()))
                       return 0;
                     var target = StringArgumentType.getString(context, "player");
-                    if (!UltraEconomyApi.existsPlayerWithName(target)) {
-                      context.getSource().sendMessage(Text.literal("§cPlayer not found"));
-                      return 0;
-                    }
                     var currencyId = StringArgumentType.getString(context, "currency");
                     var amount = BigDecimal.valueOf(FloatArgumentType.getFloat(context, "amount"));
                     run(executor, target, currencyId, amount, context);
@@ -90,9 +83,11 @@ public class PayCommand {
         );
         return;
       }
-      if (!DatabaseFactory.INSTANCE.hasEnoughBalance(executor.getUuid(), currency, amount)) return;
-
-      UUID targetUUID = CobbleUtilsSuggests.SUGGESTS_PLAYER_OFFLINE_AND_ONLINE.getPlayerUUIDWithName(target);
+      UUID targetUUID = UltraEconomyApi.getPlayerUUID(target);
+      if (targetUUID == null) {
+        context.getSource().sendMessage(Text.literal("§cPlayer not found"));
+        return;
+      }
       if (executor.getUuid().equals(targetUUID)) {
         UltraEconomy.lang.getMessagePayYourself().sendMessage(
           executor,
@@ -7,6 +7,7 @@ import com.kingpixel.cobbleutils.Model.DataBaseType;
 import com.kingpixel.cobbleutils.Model.DurationValue;
 import com.kingpixel.cobbleutils.util.Utils;
 import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.models.JournalConfig;
 import com.kingpixel.ultraeconomy.models.MigrationConfig;
 import lombok.Data;
 
@@ -34,6 +35,19 @@ public class Config {
   private int limitTopPlayers;
   private int adjustmentShortName;
   private DurationValue balTopCooldown;
+  private DurationValue balTopCacheTtl;
+  private DurationValue writeBehindInterval;
+  private int writeBehindMaxDirty;
+  private JournalConfig journal;
+  private boolean notifyPendingTransactions;
+  private DurationValue pendingTransactionsPoll;
+  private DurationValue leaderboardReconcileInterval;
+  private int asyncApiThreads;
+  private boolean warnBlockingCalls;
+  private boolean databaseMetrics;
+  private DurationValue blockingCallThreshold;
+  private int accountCacheMaxWeight;
+  private DurationValue accountCacheExpiry;
 
   public Config() {
     debug = false;
@@ -53,6 +67,19 @@ public class Config {
     limitTopPlayers = 10;
     adjustmentShortName = 3;
     balTopCooldown = DurationValue.parse("10s");
+    balTopCacheTtl = DurationValue.parse("30s");
+    writeBehindInterval = DurationValue.parse("5s");
+    writeBehindMaxDirty = 512;
+    journal = new JournalConfig();
+    notifyPendingTransactions = true;
+    pendingTransactionsPoll = DurationValue.parse("60s");
+    leaderboardReconcileInterval = DurationValue.parse("5m");
+    asyncApiThreads = 4;
+    warnBlockingCalls = true;
+    databaseMetrics = true;
+    blockingCallThreshold = DurationValue.parse("5ms");
+    accountCacheMaxWeight = 10_000;
+    accountCacheExpiry = DurationValue.parse("1m");
   }
 
   public void init() {
@@ -5,18 +5,47 @@ import com.kingpixel.ultraeconomy.UltraEconomy;
 import com.kingpixel.ultraeconomy.models.Currency;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Registry of the loaded currencies.
+ * <p>
+ * Everything is read from one immutable {@link Registry} snapshot: a reload builds the next snapshot
+ * aside and publishes it with a single volatile write, so readers see either the old or the new
+ * currencies, never a half-built map. Every currency id has a dense ordinal that never changes while the
+ * server runs, so balances and lookups can be indexed by int.
+ *
  * @author Carlos Varas Alonso - 23/09/2025 21:37
  */
 public class Currencies {
   private static String PATH = UltraEconomy.PATH + "/currencys/";
-  private static final Map<String, Currency> CURRENCY_MAP = new HashMap<>();
-  public static String[] CURRENCY_IDS;
-  public static Currency DEFAULT_CURRENCY;
+  // Ordinal estable por id de moneda, no se reinicia al recargar para no invalidar las cuentas cargadas
+  private static final Map<String, Integer> ORDINALS = new ConcurrentHashMap<>();
+  private static volatile String[] ORDINAL_IDS = new String[0];
+  private static volatile Registry REGISTRY = new Registry(Map.of(), new Currency[0], new String[0], null);
+  /**
+   * @deprecated Use {@link #getCurrencyIds()}, kept for addons and updated with every snapshot
+   */
+  @Deprecated
+  public static volatile String[] CURRENCY_IDS = new String[0];
+  /**
+   * @deprecated Use {@link #getDefaultCurrency()}, kept for addons and updated with every snapshot
+   */
+  @Deprecated
+  public static volatile Currency DEFAULT_CURRENCY;
+
+  /**
+   * @param byKey           Currencies by id and by alias
+   * @param byOrdinal       Currencies by ordinal, null for ordinals of currencies that are no longer loaded
+   * @param ids             The ids of the loaded currencies, in ordinal order
+   * @param defaultCurrency The primary currency
+   */
+  private record Registry(Map<String, Currency> byKey, Currency[] byOrdinal, String[] ids,
+                          Currency defaultCurrency) {
+  }
 
   public static void init() {
-    CURRENCY_MAP.clear();
+    Map<String, Currency> currencies = new LinkedHashMap<>();
     var folder = Utils.getAbsolutePath(PATH);
     folder.mkdirs();
     var files = Utils.getFiles(folder);
@@ -28,7 +57,7 @@ public class Currencies {
       ));
       currency.setId("dollars");
       currency.fix();
-      CURRENCY_MAP.put(currency.getId(), currency);
+      currencies.put(currency.getId(), currency);
       writeCurrency(currency);
       Currency currency2 = new Currency(false, (byte) 2, "t", new ArrayList<>(
         List.of(
@@ -36,7 +65,7 @@ public class Currencies {
         )
       ));
       currency2.setId("tokens");
-      CURRENCY_MAP.put(currency2.getId(), currency2);
+      currencies.put(currency2.getId(), currency2);
       writeCurrency(currency2);
     } else {
       for (var file : files) {
@@ -46,7 +75,7 @@ public class Currencies {
           );
           currency.setId(file.getName().replace(".json", ""));
           currency.fix();
-          CURRENCY_MAP.put(currency.getId(), currency);
+          currencies.put(currency.getId(), currency);
           writeCurrency(currency);
         } catch (Exception e) {
           e.printStackTrace();
@@ -54,37 +83,117 @@ public class Currencies {
       }
     }
 
-    Map<String, Currency> aliases = new HashMap<>();
-    for (Currency currency : CURRENCY_MAP.values()) {
-      if (currency.getCurrencyIds() != null) {
-        for (String alias : currency.getCurrencyIds()) {
-          aliases.put(alias, currency);
-        }
-      }
+    Registry registry = build(currencies.values());
+    REGISTRY = registry;
+    CURRENCY_IDS = registry.ids();
+    DEFAULT_CURRENCY = registry.defaultCurrency();
+  }
+
+  private static Registry build(Collection<Currency> currencies) {
+    Map<String, Currency> byKey = new HashMap<>();
+    Currency defaultCurrency = null;
+    int size = 0;
+    for (Currency currency : currencies) {
+      currency.setOrdinal(ordinalOf(currency.getId()));
+      currency.init();
+      if (currency.isPrimary()) defaultCurrency = currency;
+      size = Math.max(size, currency.getOrdinal() + 1);
     }
+    // Los alias no pisan a los ids
+    for (Currency currency : currencies) {
+      if (currency.getCurrencyIds() == null) continue;
+      for (String alias : currency.getCurrencyIds()) byKey.put(alias, currency);
+    }
+    Currency[] byOrdinal = new Currency[size];
+    for (Currency currency : currencies) {
+      byKey.put(currency.getId(), currency);
+      byOrdinal[currency.getOrdinal()] = currency;
+    }
+    String[] ids = Arrays.stream(byOrdinal).filter(Objects::nonNull).map(Currency::getId).toArray(String[]::new);
+    if (defaultCurrency == null && ids.length > 0) defaultCurrency = byKey.get(ids[0]);
+    return new Registry(Map.copyOf(byKey), byOrdinal, ids, defaultCurrency);
+  }
 
-    CURRENCY_MAP.putAll(aliases);
+  /**
+   * Get the dense ordinal of a currency id or alias, lookups never allocate
+   *
+   * @param currencyId The currency id
+   *
+   * @return The ordinal, or -1 if the id has never been seen
+   */
+  public static int getOrdinal(String currencyId) {
+    Currency currency = REGISTRY.byKey().get(currencyId);
+    if (currency != null) return currency.getOrdinal();
+    Integer ordinal = ORDINALS.get(currencyId);
+    return ordinal != null ? ordinal : -1;
+  }
 
+  /**
+   * Get the ordinal of a currency id, new ids get the next free ordinal. Only for ids that are going to be
+   * stored (loaded currencies and balances of an account)
+   *
+   * @param currencyId The currency id
+   *
+   * @return The ordinal
+   */
+  public static int allocateOrdinal(String currencyId) {
+    Currency currency = REGISTRY.byKey().get(currencyId);
+    return currency != null ? currency.getOrdinal() : ordinalOf(currencyId);
+  }
 
-    CURRENCY_MAP.forEach((k, v) -> {
-      v.init();
-      if (v.isPrimary()) {
-        DEFAULT_CURRENCY = v;
-      }
-    });
-
-    Set<String> IdCurrency = new HashSet<>();
-    CURRENCY_MAP.values().forEach(c -> IdCurrency.add(c.getId()));
-    CURRENCY_IDS = new String[IdCurrency.size()];
-    int i = 0;
-    for (String id : IdCurrency) {
-      CURRENCY_IDS[i] = id;
-      i++;
+  // Los ids cargados usan siempre su propio ordinal, aunque en la versión anterior fueran un alias
+  private static int ordinalOf(String currencyId) {
+    Integer ordinal = ORDINALS.get(currencyId);
+    if (ordinal != null) return ordinal;
+    synchronized (ORDINALS) {
+      return ORDINALS.computeIfAbsent(currencyId, id -> {
+        String[] ids = Arrays.copyOf(ORDINAL_IDS, ORDINAL_IDS.length + 1);
+        ids[ids.length - 1] = id;
+        ORDINAL_IDS = ids;
+        return ids.length - 1;
+      });
     }
   }
 
+  public static String getCurrencyId(int ordinal) {
+    return ORDINAL_IDS[ordinal];
+  }
+
+  /**
+   * Get a loaded currency by ordinal
+   *
+   * @param ordinal The ordinal
+   *
+   * @return The currency, or null if no loaded currency has that ordinal
+   */
+  public static Currency getCurrency(int ordinal) {
+    Currency[] byOrdinal = REGISTRY.byOrdinal();
+    return ordinal >= 0 && ordinal < byOrdinal.length ? byOrdinal[ordinal] : null;
+  }
+
+  /**
+   * Currencies by id and by alias, the map never changes
+   */
   public static Map<String, Currency> getCurrencyMap() {
-    return CURRENCY_MAP;
+    return REGISTRY.byKey();
+  }
+
+  /**
+   * The loaded currencies without aliases, in ordinal order
+   */
+  public static List<Currency> getCurrencies() {
+    return Arrays.stream(REGISTRY.byOrdinal()).filter(Objects::nonNull).toList();
+  }
+
+  /**
+   * The ids of the loaded currencies, in ordinal order. The array must not be modified
+   */
+  public static String[] getCurrencyIds() {
+    return REGISTRY.ids();
+  }
+
+  public static Currency getDefaultCurrency() {
+    return REGISTRY.defaultCurrency();
   }
 
   private static void writeCurrency(Currency currency) {
@@ -93,8 +202,9 @@ public class Currencies {
   }
 
   public static Currency getCurrency(String currency) {
-    var curr = CURRENCY_MAP.get(currency);
-    if (curr == null) curr = DEFAULT_CURRENCY;
+    Registry registry = REGISTRY;
+    var curr = registry.byKey().get(currency);
+    if (curr == null) curr = registry.defaultCurrency();
     return curr;
   }
 
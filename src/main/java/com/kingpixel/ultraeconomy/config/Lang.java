@@ -41,6 +41,17 @@ public class Lang {
     .setRawMessage("%prefix%<#FF5555>💸 You have withdrawn <#FFAA33>%amount% <#FF5555>from your account.")
     .build();
 
+  // Varias notificaciones juntadas en una cuando queueMessages está activo
+  private HiperMessage messageDepositMerged = HiperMessageBuilder.builder()
+    .setType(MessageType.ACTIONBAR)
+    .setRawMessage("%prefix%<#00FFAA>💰 You have received <#FFDD55>%amount% <#00FFAA>from <#FFDD55>%count% <#00FFAA>deposits.")
+    .build();
+
+  private HiperMessage messageWithdrawMerged = HiperMessageBuilder.builder()
+    .setType(MessageType.ACTIONBAR)
+    .setRawMessage("%prefix%<#FF5555>💸 You have withdrawn <#FFAA33>%amount% <#FF5555>in <#FFAA33>%count% <#FF5555>withdrawals.")
+    .build();
+
   private HiperMessage messageCurrencyNotTransferable = HiperMessageBuilder.builder()
     .setType(MessageType.CHAT)
     .setRawMessage("%prefix%<#FF4444>⚠️ This currency cannot be transferred.")
@@ -57,6 +68,16 @@ public class Lang {
     .setRawMessage("%prefix%<#00FFAA>💰 You have received <#FFDD55>%amount% <#00FFAA>from <#33FFFF>%player%")
     .build();
 
+  private HiperMessage messagePaySuccessSenderMerged = HiperMessageBuilder.builder()
+    .setType(MessageType.ACTIONBAR)
+    .setRawMessage("%prefix%<#00FFAA>✅ You have paid <#FFDD55>%amount% <#00FFAA>to <#33FFFF>%player% <#00FFAA>in <#FFDD55>%count% <#00FFAA>payments")
+    .build();
+
+  private HiperMessage messagePaySuccessReceiverMerged = HiperMessageBuilder.builder()
+    .setType(MessageType.CHAT)
+    .setRawMessage("%prefix%<#00FFAA>💰 You have received <#FFDD55>%amount% <#00FFAA>from <#33FFFF>%player% <#00FFAA>in <#FFDD55>%count% <#00FFAA>payments")
+    .build();
+
   private HiperMessage messagePayYourself = HiperMessageBuilder.builder()
     .setType(MessageType.CHAT)
     .setRawMessage("%prefix%<#FF4444>❌ You cannot pay yourself.")
@@ -1,19 +1,38 @@
 package com.kingpixel.ultraeconomy.database;
 
 import com.kingpixel.cobbleutils.Model.DataBaseConfig;
-import com.kingpixel.cobbleutils.command.suggests.CobbleUtilsSuggests;
-import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.api.BatchOperation;
+import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.manager.PlayerIndexManager;
+import com.kingpixel.ultraeconomy.manager.PlayerMessageQueueManager;
+import com.kingpixel.ultraeconomy.manager.PlayerMessageQueueManager.NotificationType;
 import com.kingpixel.ultraeconomy.models.Account;
 import com.kingpixel.ultraeconomy.models.Currency;
+import com.kingpixel.ultraeconomy.models.LeaderboardEntry;
 import com.kingpixel.ultraeconomy.models.Transaction;
+import com.kingpixel.ultraeconomy.services.VaultService;
+import net.minecraft.entity.Entity;
 
 import javax.annotation.Nullable;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 public abstract class DatabaseClient {
+  protected final WriteBehindBuffer writeBehind = new WriteBehindBuffer(this);
+  protected TransactionJournal journal;
+
   /**
    * Connect to the database
    *
@@ -41,13 +60,35 @@ public abstract class DatabaseClient {
   public abstract boolean isConnected();
 
   /**
-   * Get an account by UUID
+   * Get an account by UUID, loading it into the cache if needed
    *
    * @param uuid The UUID of the account
    *
    * @return The account, or null if not found
    */
-  public abstract Account getAccount(UUID uuid);
+  public Account getAccount(UUID uuid) {
+    return DatabaseFactory.ACCOUNTS.get(uuid);
+  }
+
+  /**
+   * Read an account from the database without touching the cache, used by the cache loader.
+   * Online players without account get a new one
+   *
+   * @param uuid The UUID of the account
+   *
+   * @return The account, or null if not found
+   */
+  public abstract Account loadAccount(UUID uuid);
+
+  /**
+   * Get many accounts at once. Cached accounts are taken from the cache and the rest are read in bulk
+   * without being added to it.
+   *
+   * @param uuids The UUIDs of the players
+   *
+   * @return The accounts found, by UUID. Players without account are not included
+   */
+  public abstract Map<UUID, Account> getAccounts(Collection<UUID> uuids);
 
   /**
    * Get a cached account by UUID
@@ -112,7 +153,236 @@ public abstract class DatabaseClient {
    * @return true if successful, false otherwise
    */
   public boolean withdraw(UUID uuid, Currency currency, BigDecimal amount) {
-    return removeBalance(uuid, currency, amount);
+    return tryWithdraw(uuid, currency, amount).isSuccess();
+  }
+
+  /**
+   * Check the balance and withdraw in a single atomic step.
+   * <p>
+   * Cached accounts are debited in memory with a CAS, the rest with a conditional update in the database,
+   * so two concurrent withdrawals can never overdraw the account.
+   * <p>
+   * The conditional update is only safe while no other server has the account cached: that server writes
+   * its own absolute balance on the next flush and the debit is lost. With several servers on the same
+   * database, withdraw from accounts that are offline everywhere or from the server the player is on.
+   *
+   * @param uuid     The UUID of the account
+   * @param currency The currency to withdraw
+   * @param amount   The amount to withdraw
+   *
+   * @return The result of the withdrawal
+   */
+  public TransactionResult tryWithdraw(UUID uuid, Currency currency, BigDecimal amount) {
+    if (amount == null || amount.signum() <= 0) return TransactionResult.INVALID_AMOUNT;
+    Account account = getCachedAccount(uuid);
+    TransactionResult result;
+    if (account != null) {
+      result = account.tryWithdraw(currency, amount);
+      if (result.isSuccess()) markDirty(account, currency);
+    } else {
+      result = tryWithdrawStored(uuid, currency, amount);
+    }
+    if (result.isSuccess()) addTransaction(uuid, currency, amount, TransactionType.WITHDRAW, true);
+    return result;
+  }
+
+  /**
+   * Conditional debit of an account that is not cached, directly in the database. Not coordinated with
+   * other servers, see {@link #tryWithdraw(UUID, Currency, BigDecimal)}
+   *
+   * @param uuid     The UUID of the account
+   * @param currency The currency to withdraw
+   * @param amount   The amount to withdraw, positive
+   *
+   * @return The result of the withdrawal
+   */
+  protected abstract TransactionResult tryWithdrawStored(UUID uuid, Currency currency, BigDecimal amount);
+
+  /**
+   * Move an amount from one account to another.
+   * <p>
+   * When both accounts are cached both legs are applied in memory under the locks of both accounts.
+   * Otherwise the payer is debited atomically (in memory or with a conditional update) and the receiver
+   * is credited in memory, or with a pending deposit when it is not cached here, so the server that has
+   * it loaded applies it. One TRANSFER row with both accounts is recorded as history.
+   *
+   * @param from     The UUID of the account that pays
+   * @param to       The UUID of the account that receives
+   * @param currency The currency
+   * @param amount   The amount to move
+   *
+   * @return The result of the transfer
+   */
+  public TransactionResult transfer(UUID from, UUID to, Currency currency, BigDecimal amount) {
+    if (amount == null || amount.signum() <= 0 || from.equals(to)) return TransactionResult.INVALID_AMOUNT;
+    Account source = getCachedAccount(from);
+    Account target = getCachedAccount(to);
+    TransactionResult result;
+    if (source != null && target != null) {
+      result = Account.transfer(source, target, currency, amount, () -> {
+        markDirty(source, currency);
+        markDirty(target, currency);
+      });
+      if (result.isSuccess()) recordTransfer(from, to, currency, amount, false);
+      return result;
+    }
+    if (source != null) {
+      result = source.tryWithdraw(currency, amount);
+      if (result.isSuccess()) {
+        markDirty(source, currency);
+        recordTransfer(from, to, currency, amount, true);
+      }
+      return result;
+    }
+    result = transferStored(from, to, currency, amount, target == null);
+    if (result.isSuccess() && target != null) {
+      if (target.addBalance(currency, amount)) {
+        markDirty(target, currency);
+      } else {
+        // No debería pasar, se deja pendiente para no perder el dinero
+        addTransaction(to, currency, amount, TransactionType.DEPOSIT, false);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Debit an account that is not cached and record the transfer, by default one step after the other.
+   * Clients that support it should do everything in a single database transaction.
+   *
+   * @param from         The UUID of the account that pays, not cached
+   * @param to           The UUID of the account that receives
+   * @param currency     The currency
+   * @param amount       The amount to move, positive
+   * @param creditStored true if the receiver is not cached either and must get a pending deposit
+   *
+   * @return The result of the debit
+   */
+  protected TransactionResult transferStored(UUID from, UUID to, Currency currency, BigDecimal amount,
+                                             boolean creditStored) {
+    TransactionResult result = tryWithdrawStored(from, currency, amount);
+    if (result.isSuccess()) recordTransfer(from, to, currency, amount, creditStored);
+    return result;
+  }
+
+  /**
+   * Record a transfer in the journal
+   *
+   * @param from         The account that paid
+   * @param to           The account that received
+   * @param currency     The currency
+   * @param amount       The amount
+   * @param creditStored true to also queue the deposit of the receiver as a pending transaction
+   */
+  protected void recordTransfer(UUID from, UUID to, Currency currency, BigDecimal amount, boolean creditStored) {
+    journal.append(transferTransaction(from, to, currency, amount));
+    if (creditStored) addTransaction(to, currency, amount, TransactionType.DEPOSIT, false);
+  }
+
+  /**
+   * Apply a batch of operations in one pass: cached accounts change in memory, uncached ones get pending
+   * transactions (withdrawals are checked against the database), then the journal rows are appended
+   * together and the balances changed by the batch are written with a single bulk write.
+   *
+   * @param operations The operations
+   *
+   * @return The status of every operation, in the same order
+   */
+  public List<TransactionResult> applyBatch(List<BatchOperation.Operation> operations) {
+    List<TransactionResult> results = new ArrayList<>(operations.size());
+    if (operations.isEmpty()) return results;
+    List<Transaction> rows = new ArrayList<>(operations.size());
+    Map<UUID, BatchChange> changed = new LinkedHashMap<>();
+    Instant now = Instant.now();
+    for (BatchOperation.Operation operation : operations) {
+      TransactionResult result;
+      try {
+        result = applyBatchOperation(operation, rows, changed, now);
+      } catch (Exception e) {
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error applying batch operation " + operation);
+        e.printStackTrace();
+        result = TransactionResult.FAILED;
+      }
+      results.add(result);
+    }
+    journal.appendAll(rows);
+    saveBatchChanges(changed);
+    return results;
+  }
+
+  private record BatchChange(Account account, Set<Currency> currencies) {
+  }
+
+  /**
+   * Write only the balances changed by a batch, if the write fails they are left to the write-behind buffer
+   */
+  private void saveBatchChanges(Map<UUID, BatchChange> changed) {
+    if (changed.isEmpty()) return;
+    Map<UUID, Map<String, BigDecimal>> balances = new HashMap<>();
+    Map<UUID, String> names = new HashMap<>();
+    changed.forEach((uuid, change) -> {
+      Map<String, BigDecimal> values = new HashMap<>();
+      for (Currency currency : change.currencies()) {
+        BigDecimal value = change.account().getBalance(currency);
+        if (value != null) values.put(currency.getId(), value);
+      }
+      balances.put(uuid, values);
+      if (change.account().getPlayerName() != null) names.put(uuid, change.account().getPlayerName());
+    });
+    try {
+      saveBalancesSync(balances, names);
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error saving the balances of a batch, they will be retried");
+      e.printStackTrace();
+      changed.values().forEach(change -> change.currencies().forEach(currency -> markDirty(change.account(), currency)));
+    }
+  }
+
+  private TransactionResult applyBatchOperation(BatchOperation.Operation operation, List<Transaction> rows,
+                                                Map<UUID, BatchChange> changed, Instant now) {
+    UUID uuid = operation.uuid();
+    Currency currency = operation.currency();
+    BigDecimal amount = operation.amount();
+    TransactionType type = operation.type();
+    if (amount == null || amount.signum() < 0 || (amount.signum() == 0 && type != TransactionType.SET)) {
+      return TransactionResult.INVALID_AMOUNT;
+    }
+    Account account = getCachedAccount(uuid);
+    if (account == null) {
+      if (type == TransactionType.WITHDRAW) {
+        TransactionResult result = tryWithdrawStored(uuid, currency, amount);
+        if (result.isSuccess()) rows.add(new Transaction(uuid, currency.getId(), amount, type, true, now));
+        return result;
+      }
+      rows.add(new Transaction(uuid, currency.getId(), amount, type, false, now));
+      return TransactionResult.SUCCESS;
+    }
+    TransactionResult result = switch (type) {
+      case DEPOSIT -> account.addBalance(currency, amount) ? TransactionResult.SUCCESS : TransactionResult.FAILED;
+      case WITHDRAW -> account.tryWithdraw(currency, amount);
+      case SET -> {
+        account.setBalance(currency, amount);
+        yield TransactionResult.SUCCESS;
+      }
+      default -> TransactionResult.INVALID_AMOUNT;
+    };
+    if (result.isSuccess()) {
+      changed.computeIfAbsent(uuid, k -> new BatchChange(account, new HashSet<>())).currencies().add(currency);
+      rows.add(new Transaction(uuid, currency.getId(), amount, type, true, now));
+    }
+    return result;
+  }
+
+  protected static Transaction transferTransaction(UUID from, UUID to, Currency currency, BigDecimal amount) {
+    return Transaction.builder()
+      .accountUUID(from)
+      .transferedToAccountUUID(to)
+      .currency(currency.getId())
+      .amount(amount)
+      .type(TransactionType.TRANSFER)
+      .processed(true)
+      .timestamp(Instant.now())
+      .build();
   }
 
 
@@ -159,13 +429,159 @@ public abstract class DatabaseClient {
    */
   public abstract List<Account> getTopBalances(Currency currency, int page, int playersPerPage);
 
+  /**
+   * Read the balance of every account in a currency, used to seed the in-memory leaderboard
+   *
+   * @param currency The currency
+   *
+   * @return The balances, in no particular order
+   */
+  public abstract List<LeaderboardEntry> getAllBalances(Currency currency);
+
   public abstract boolean existPlayerWithUUID(UUID uuid);
 
   public abstract void saveOrUpdateAccountSync(Account account);
 
+  /**
+   * Save or update many accounts at once, backends override this to use a single bulk write
+   *
+   * @param accounts The accounts to save or update
+   */
+  public void saveOrUpdateAccountsSync(Collection<Account> accounts) {
+    accounts.forEach(this::saveOrUpdateAccountSync);
+  }
+
+  /**
+   * Write the given balances to the database, only the listed currencies are touched
+   *
+   * @param balances The balances to write, grouped by account UUID and currency id
+   * @param names    The player name of those accounts, used to create the account if it was not saved yet
+   */
+  protected abstract void saveBalancesSync(Map<UUID, Map<String, BigDecimal>> balances, Map<UUID, String> names);
+
+  /**
+   * Mark a balance of a cached account as changed, it will be written on the next flush
+   *
+   * @param account  The account that changed
+   * @param currency The currency that changed
+   */
+  public void markDirty(Account account, Currency currency) {
+    writeBehind.markDirty(account, currency);
+  }
+
+  public WriteBehindBuffer getWriteBehind() {
+    return writeBehind;
+  }
+
+  /**
+   * Get the journal that buffers transaction writes
+   *
+   * @return The journal, or null if the backend writes transactions directly
+   */
+  public @Nullable TransactionJournal getJournal() {
+    return journal;
+  }
+
   protected abstract void addTransaction(UUID uuid, Currency currency, BigDecimal amount, TransactionType type,
                                          boolean processed);
 
+  /**
+   * Apply the pending transactions of the given accounts.
+   * <p>
+   * Only accounts cached on this server are processed. Every transaction is claimed in the database
+   * (processed FALSE -> TRUE) before it is applied, so it is never applied twice, even with several servers.
+   *
+   * @param uuids The accounts to check
+   */
+  public abstract void applyPendingTransactions(Collection<UUID> uuids);
+
+  /**
+   * Slow poll over the online players, only needed for transactions written by other servers
+   */
+  protected void pollPendingTransactions() {
+    if (UltraEconomy.server == null) return;
+    List<UUID> online = UltraEconomy.server.getPlayerManager().getPlayerList().stream()
+      .map(Entity::getUuid)
+      .toList();
+    if (online.isEmpty()) return;
+    try {
+      applyPendingTransactions(online);
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error polling pending transactions");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Keep only the accounts that are cached on this server
+   *
+   * @param uuids The accounts
+   *
+   * @return The cached accounts, without duplicates
+   */
+  protected List<UUID> cachedOnly(Collection<UUID> uuids) {
+    return uuids.stream()
+      .distinct()
+      .filter(uuid -> DatabaseFactory.ACCOUNTS.getIfPresent(uuid) != null)
+      .toList();
+  }
+
+  /**
+   * Apply a claimed pending transaction to a cached account.
+   * <p>
+   * Only the cached account (and Vault for the primary currency) is changed, never the database, so it
+   * can run while the claim holds a connection. The pending row is its record, no new transaction is
+   * written. A withdrawal without funds is rejected and still counts as applied.
+   *
+   * @param uuid     The account
+   * @param currency The currency
+   * @param amount   The amount
+   * @param type     The type of the transaction
+   *
+   * @return false if the account is no longer cached or the type is unknown, the claim must be undone
+   */
+  protected boolean applyPendingTransaction(UUID uuid, Currency currency, BigDecimal amount, TransactionType type) {
+    if (type != TransactionType.DEPOSIT && type != TransactionType.WITHDRAW && type != TransactionType.SET) {
+      CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Unknown pending transaction type " + type + " for " + uuid);
+      return false;
+    }
+    Account account = getCachedAccount(uuid);
+    if (account == null) return false;
+    BigDecimal value = currency.normalize(amount);
+    boolean applied;
+    if (VaultService.isPresent() && currency.equals(Currencies.getDefaultCurrency())) {
+      String currencyId = currency.getId();
+      applied = switch (type) {
+        case DEPOSIT -> VaultService.deposit(uuid, currencyId, value);
+        case WITHDRAW -> VaultService.tryWithdraw(uuid, currencyId, value);
+        default -> {
+          VaultService.setBalance(uuid, currencyId, value);
+          yield true;
+        }
+      };
+      account.setBalance(currency, VaultService.getBalance(uuid, currencyId));
+    } else {
+      applied = switch (type) {
+        case DEPOSIT -> account.addBalance(currency, value);
+        case WITHDRAW -> account.tryWithdraw(currency, value).isSuccess();
+        default -> {
+          account.setBalance(currency, value);
+          yield true;
+        }
+      };
+    }
+    markDirty(account, currency);
+    if (UltraEconomy.config.isNotifications()) {
+      NotificationType notification = switch (type) {
+        case DEPOSIT -> applied ? NotificationType.DEPOSIT : null;
+        case WITHDRAW -> applied ? NotificationType.WITHDRAW : NotificationType.NO_MONEY;
+        default -> NotificationType.SET_BALANCE;
+      };
+      if (notification != null) PlayerMessageQueueManager.notify(uuid, notification, currency, value, null, 1);
+    }
+    return true;
+  }
+
   /**
    * Create a backup of the database
    *
@@ -177,13 +593,30 @@ public abstract class DatabaseClient {
   protected abstract void cleanOldBackUps();
 
   public void flushCache() {
-    DatabaseFactory.ACCOUNTS.asMap().forEach((uuid, account) -> UltraEconomyApi.saveAccountSync(account));
+    writeBehind.stop();
+    saveOrUpdateAccountsSync(List.copyOf(DatabaseFactory.ACCOUNTS.asMap().values()));
   }
 
   public boolean existPlayerWithName(String target) {
-    return existPlayerWithUUID(CobbleUtilsSuggests.SUGGESTS_PLAYER_OFFLINE_AND_ONLINE.getPlayerUUIDWithName(target));
+    return PlayerIndexManager.getUUID(target) != null;
   }
 
+  /**
+   * Read the name of every account, used to seed the player index
+   *
+   * @return The names by UUID, accounts without name are not included
+   */
+  public abstract Map<UUID, String> getPlayerNames();
+
+  /**
+   * Find the UUID of an account by name ignoring case, without loading the account
+   *
+   * @param name The name of the player
+   *
+   * @return The UUID, or null if there is no account with that name
+   */
+  public abstract UUID getUUIDByName(String name);
+
   // API for web server
   public abstract List<Account> getAccounts(int limit, int page);
 
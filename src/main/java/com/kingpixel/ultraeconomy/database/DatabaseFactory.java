@@ -1,9 +1,15 @@
 package com.kingpixel.ultraeconomy.database;
 
-import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.cobbleutils.Model.DataBaseConfig;
 import com.kingpixel.cobbleutils.Model.DataBaseType;
+import com.kingpixel.ultraeconomy.UltraEconomy;
 import com.kingpixel.ultraeconomy.database.SQL.SQLClient;
 import com.kingpixel.ultraeconomy.exceptions.DatabaseConnectionException;
 import com.kingpixel.ultraeconomy.models.Account;
@@ -11,32 +17,119 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class DatabaseFactory {
+  // Carga las cuentas que no están en caché, fuera del hilo del servidor
+  private static final ExecutorService LOADER = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+    .setNameFormat("ultra economy-accounts-%d")
+    .setDaemon(true)
+    .build()
+  );
+
   /**
-   * Only use cache accounts for local database operations
-   * 1 minute expiration after last access
-   * Maximum size of 1000 accounts
-   * On removal, save or update the account in the database
+   * Accounts loaded on this server, the only copy that local operations may change.
+   * <p>
+   * Online players weigh 0 and never expire, so they are never evicted. Offline accounts (web API,
+   * baltop, offline pay...) weigh 1 + their balances, are bounded by {@code accountCacheMaxWeight}
+   * and expire {@code accountCacheExpiry} after their last access. The dirty balances of an evicted
+   * account are written on the scheduler, and until they are written a new load gets them on top of
+   * the stored row (see {@link WriteBehindBuffer#adopt(Account)}). Both limits are read again on
+   * {@link #init(DataBaseConfig)}, so a reload applies them to the accounts already cached.
+   * <p>
+   * Misses are loaded through {@link DatabaseClient#loadAccount(UUID)}, concurrent misses of the same
+   * UUID wait for a single load.
    */
-  public static final Cache<@NotNull UUID, Account> ACCOUNTS = Caffeine
+  public static final AsyncLoadingCache<@NotNull UUID, Account> ASYNC_ACCOUNTS = Caffeine
     .newBuilder()
-    .build();
+    .executor(LOADER)
+    .maximumWeight(Math.max(UltraEconomy.config.getAccountCacheMaxWeight(), 1))
+    .weigher((UUID uuid, Account account) -> isOnline(uuid) ? 0 : 1 + account.getBalanceCount())
+    .expireAfter(new AccountExpiry())
+    .evictionListener(DatabaseFactory::onEviction)
+    .recordStats()
+    .buildAsync((uuid, executor) -> CompletableFuture.supplyAsync(
+      () -> INSTANCE.getWriteBehind().adopt(INSTANCE.loadAccount(uuid)), executor));
+
+  public static final LoadingCache<@NotNull UUID, Account> ACCOUNTS = ASYNC_ACCOUNTS.synchronous();
 
   public static DatabaseClient INSTANCE;
 
   public static void init(DataBaseConfig config) {
-    if (INSTANCE != null) INSTANCE.disconnect();
-    switch (config.getType()) {
-      case SQLITE, MYSQL, MARIADB, H2 -> INSTANCE = new SQLClient();
-      case MONGODB -> INSTANCE = new MongoDBClient();
+    if (INSTANCE != null) {
+      INSTANCE.getWriteBehind().stop();
+      INSTANCE.disconnect();
+    }
+    DatabaseClient client = switch (config.getType()) {
+      case SQLITE, MYSQL, MARIADB, H2 -> new SQLClient();
+      case MONGODB -> new MongoDBClient();
       default ->
         throw new DatabaseConnectionException("Unknown database type " + Arrays.toString(DataBaseType.values()));
-    }
+    };
+    INSTANCE = UltraEconomy.config.isDatabaseMetrics() ? new InstrumentedDatabaseClient(client) : client;
     INSTANCE.connect(config);
+    INSTANCE.getWriteBehind().start();
+    applyCacheConfig();
+  }
+
+  /**
+   * Apply the cache limits of the config, the expiry of new accesses is already read from the config
+   */
+  private static void applyCacheConfig() {
+    ACCOUNTS.policy().eviction().ifPresent(eviction ->
+      eviction.setMaximum(Math.max(UltraEconomy.config.getAccountCacheMaxWeight(), 1)));
+    ACCOUNTS.policy().expireVariably().ifPresent(expiry -> {
+      for (UUID uuid : ACCOUNTS.asMap().keySet()) {
+        expiry.setExpiresAfter(uuid, AccountExpiry.duration(uuid), TimeUnit.NANOSECONDS);
+      }
+    });
+  }
+
+  /**
+   * Stop the account loader, called when the server stops after the database is disconnected
+   */
+  public static void shutdown() {
+    CobbleUtils.shutdownAndAwait(LOADER);
   }
 
   public static boolean isConnected() {
     return INSTANCE != null && INSTANCE.isConnected();
   }
+
+  private static boolean isOnline(UUID uuid) {
+    return CobbleUtils.server != null && CobbleUtils.server.getPlayerManager().getPlayer(uuid) != null;
+  }
+
+  /**
+   * Runs inside the removal of the entry on the loader, so it only hands the write-back to the scheduler
+   */
+  private static void onEviction(UUID uuid, Account account, RemovalCause cause) {
+    if (uuid == null || INSTANCE == null) return;
+    INSTANCE.getWriteBehind().flushLater(uuid);
+  }
+
+  private static class AccountExpiry implements Expiry<UUID, Account> {
+    @Override
+    public long expireAfterCreate(UUID uuid, Account account, long currentTime) {
+      return duration(uuid);
+    }
+
+    @Override
+    public long expireAfterUpdate(UUID uuid, Account account, long currentTime, long currentDuration) {
+      return duration(uuid);
+    }
+
+    @Override
+    public long expireAfterRead(UUID uuid, Account account, long currentTime, long currentDuration) {
+      return duration(uuid);
+    }
+
+    private static long duration(UUID uuid) {
+      if (isOnline(uuid)) return Long.MAX_VALUE;
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(UltraEconomy.config.getAccountCacheExpiry().toMillis(), 1000));
+    }
+  }
 }
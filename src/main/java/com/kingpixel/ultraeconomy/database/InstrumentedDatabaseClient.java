@@ -0,0 +1,258 @@
+package com.kingpixel.ultraeconomy.database;
+
+import com.kingpixel.cobbleutils.Model.DataBaseConfig;
+import com.kingpixel.ultraeconomy.api.BatchOperation;
+import com.kingpixel.ultraeconomy.metrics.DatabaseMetrics;
+import com.kingpixel.ultraeconomy.models.Account;
+import com.kingpixel.ultraeconomy.models.Currency;
+import com.kingpixel.ultraeconomy.models.LeaderboardEntry;
+import com.kingpixel.ultraeconomy.models.Transaction;
+import lombok.Getter;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Wraps the real client and records the latency of every call in {@link DatabaseMetrics}.
+ * <p>
+ * Every method, including the ones with a default implementation, goes straight to the delegate,
+ * so the write-behind buffer and the journal are the ones of the delegate.
+ */
+public class InstrumentedDatabaseClient extends DatabaseClient {
+  @Getter
+  private final DatabaseClient delegate;
+
+  public InstrumentedDatabaseClient(DatabaseClient delegate) {
+    this.delegate = delegate;
+  }
+
+  private static <T> T time(String operation, Supplier<T> call) {
+    long start = System.nanoTime();
+    try {
+      return call.get();
+    } finally {
+      DatabaseMetrics.record(operation, System.nanoTime() - start);
+    }
+  }
+
+  private static void time(String operation, Runnable call) {
+    long start = System.nanoTime();
+    try {
+      call.run();
+    } finally {
+      DatabaseMetrics.record(operation, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void connect(DataBaseConfig config) {
+    time("connect", () -> delegate.connect(config));
+  }
+
+  @Override
+  public void disconnect() {
+    time("disconnect", delegate::disconnect);
+  }
+
+  @Override
+  public void invalidate(UUID playerUUID) {
+    time("invalidate", () -> delegate.invalidate(playerUUID));
+  }
+
+  @Override
+  public boolean isConnected() {
+    return delegate.isConnected();
+  }
+
+  @Override
+  public Account getAccount(UUID uuid) {
+    return time("getAccount", () -> delegate.getAccount(uuid));
+  }
+
+  @Override
+  public Account loadAccount(UUID uuid) {
+    return time("loadAccount", () -> delegate.loadAccount(uuid));
+  }
+
+  @Override
+  public Map<UUID, Account> getAccounts(Collection<UUID> uuids) {
+    return time("getAccounts", () -> delegate.getAccounts(uuids));
+  }
+
+  @Override
+  public Account getCachedAccount(UUID uuid) {
+    return delegate.getCachedAccount(uuid);
+  }
+
+  @Override
+  public void saveOrUpdateAccount(Account account) {
+    time("saveOrUpdateAccount", () -> delegate.saveOrUpdateAccount(account));
+  }
+
+  @Override
+  public boolean addBalance(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("addBalance", () -> delegate.addBalance(uuid, currency, amount));
+  }
+
+  @Override
+  public boolean deposit(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("deposit", () -> delegate.deposit(uuid, currency, amount));
+  }
+
+  @Override
+  public boolean removeBalance(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("removeBalance", () -> delegate.removeBalance(uuid, currency, amount));
+  }
+
+  @Override
+  public boolean withdraw(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("withdraw", () -> delegate.withdraw(uuid, currency, amount));
+  }
+
+  @Override
+  public TransactionResult tryWithdraw(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("tryWithdraw", () -> delegate.tryWithdraw(uuid, currency, amount));
+  }
+
+  @Override
+  protected TransactionResult tryWithdrawStored(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("tryWithdrawStored", () -> delegate.tryWithdrawStored(uuid, currency, amount));
+  }
+
+  @Override
+  public TransactionResult transfer(UUID from, UUID to, Currency currency, BigDecimal amount) {
+    return time("transfer", () -> delegate.transfer(from, to, currency, amount));
+  }
+
+  @Override
+  public List<TransactionResult> applyBatch(List<BatchOperation.Operation> operations) {
+    return time("applyBatch", () -> delegate.applyBatch(operations));
+  }
+
+  @Override
+  public @Nullable BigDecimal getBalance(UUID uuid, Currency currency) {
+    return time("getBalance", () -> delegate.getBalance(uuid, currency));
+  }
+
+  @Override
+  public BigDecimal setBalance(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("setBalance", () -> delegate.setBalance(uuid, currency, amount));
+  }
+
+  @Override
+  public boolean hasEnoughBalance(UUID uuid, Currency currency, BigDecimal amount) {
+    return time("hasEnoughBalance", () -> delegate.hasEnoughBalance(uuid, currency, amount));
+  }
+
+  @Override
+  public List<Account> getTopBalances(Currency currency, int page, int playersPerPage) {
+    return time("getTopBalances", () -> delegate.getTopBalances(currency, page, playersPerPage));
+  }
+
+  @Override
+  public List<LeaderboardEntry> getAllBalances(Currency currency) {
+    return time("getAllBalances", () -> delegate.getAllBalances(currency));
+  }
+
+  @Override
+  public Map<UUID, String> getPlayerNames() {
+    return time("getPlayerNames", delegate::getPlayerNames);
+  }
+
+  @Override
+  public UUID getUUIDByName(String name) {
+    return time("getUUIDByName", () -> delegate.getUUIDByName(name));
+  }
+
+  @Override
+  public boolean existPlayerWithUUID(UUID uuid) {
+    return time("existPlayerWithUUID", () -> delegate.existPlayerWithUUID(uuid));
+  }
+
+  @Override
+  public void saveOrUpdateAccountSync(Account account) {
+    time("saveOrUpdateAccountSync", () -> delegate.saveOrUpdateAccountSync(account));
+  }
+
+  @Override
+  public void saveOrUpdateAccountsSync(Collection<Account> accounts) {
+    time("saveOrUpdateAccountsSync", () -> delegate.saveOrUpdateAccountsSync(accounts));
+  }
+
+  @Override
+  protected void saveBalancesSync(Map<UUID, Map<String, BigDecimal>> balances, Map<UUID, String> names) {
+    time("saveBalancesSync", () -> delegate.saveBalancesSync(balances, names));
+  }
+
+  @Override
+  public void markDirty(Account account, Currency currency) {
+    delegate.markDirty(account, currency);
+  }
+
+  @Override
+  public WriteBehindBuffer getWriteBehind() {
+    return delegate.getWriteBehind();
+  }
+
+  @Override
+  public @Nullable TransactionJournal getJournal() {
+    return delegate.getJournal();
+  }
+
+  @Override
+  protected void addTransaction(UUID uuid, Currency currency, BigDecimal amount, TransactionType type,
+                                boolean processed) {
+    time("addTransaction", () -> delegate.addTransaction(uuid, currency, amount, type, processed));
+  }
+
+  @Override
+  public void applyPendingTransactions(Collection<UUID> uuids) {
+    time("applyPendingTransactions", () -> delegate.applyPendingTransactions(uuids));
+  }
+
+  @Override
+  public CompletableFuture<?> createBackUp() {
+    return time("createBackUp", delegate::createBackUp);
+  }
+
+  @Override
+  public void loadBackUp(UUID uuid) {
+    time("loadBackUp", () -> delegate.loadBackUp(uuid));
+  }
+
+  @Override
+  protected void cleanOldBackUps() {
+    time("cleanOldBackUps", delegate::cleanOldBackUps);
+  }
+
+  @Override
+  public void flushCache() {
+    time("flushCache", delegate::flushCache);
+  }
+
+  @Override
+  public boolean existPlayerWithName(String target) {
+    return time("existPlayerWithName", () -> delegate.existPlayerWithName(target));
+  }
+
+  @Override
+  public List<Account> getAccounts(int limit, int page) {
+    return time("getAccountsPage", () -> delegate.getAccounts(limit, page));
+  }
+
+  @Override
+  public List<Transaction> getTransactions(UUID uuid, int limit) {
+    return time("getTransactions", () -> delegate.getTransactions(uuid, limit));
+  }
+
+  @Override
+  public Account getAccountByName(String name) {
+    return time("getAccountByName", () -> delegate.getAccountByName(name));
+  }
+}
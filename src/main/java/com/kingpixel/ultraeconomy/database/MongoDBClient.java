@@ -3,20 +3,21 @@ package com.kingpixel.ultraeconomy.database;
 import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.cobbleutils.Model.DataBaseConfig;
 import com.kingpixel.ultraeconomy.UltraEconomy;
-import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
 import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
+import com.kingpixel.ultraeconomy.manager.PlayerIndexManager;
 import com.kingpixel.ultraeconomy.models.Account;
 import com.kingpixel.ultraeconomy.models.Currency;
+import com.kingpixel.ultraeconomy.models.LeaderboardEntry;
 import com.kingpixel.ultraeconomy.models.Transaction;
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoNamespace;
 import com.mongodb.client.*;
 import com.mongodb.client.model.*;
-import net.minecraft.entity.Entity;
-import net.minecraft.server.network.ServerPlayerEntity;
 import org.bson.Document;
 import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
 import org.bson.types.Decimal128;
 
 import java.math.BigDecimal;
@@ -36,6 +37,7 @@ public class MongoDBClient extends DatabaseClient {
 
   public static final String FIELD_UUID = "uuid";
   public static final String FIELD_PLAYER_NAME = "player_name";
+  public static final String FIELD_PLAYER_NAME_LOWER = "player_name_lower";
   public static final String FIELD_BALANCES = "balances";
   private static final String FIELD_ACCOUNT_UUID = "account_uuid";
   private static final String FIELD_CURRENCY_ID = "currency_id";
@@ -43,6 +45,7 @@ public class MongoDBClient extends DatabaseClient {
   private static final String FIELD_TYPE = "type";
   private static final String FIELD_PROCESSED = "processed";
   private static final String FIELD_BACKUP_UUID = "uuid";
+  private static final int BULK_READ_SIZE = 1000;
 
   private final AtomicBoolean connected = new AtomicBoolean(false);
   private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
@@ -85,6 +88,9 @@ public class MongoDBClient extends DatabaseClient {
 
       ensureIndexes();
 
+      journal = new MongoTransactionJournal(transactionsCollection, UltraEconomy.config.getJournal());
+      journal.start();
+
       transactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
         Thread t = new Thread(r, "UltraEconomy-Transaction-Worker");
         t.setDaemon(true);
@@ -94,12 +100,17 @@ public class MongoDBClient extends DatabaseClient {
       runningTransactions = true;
       connected.set(true);
 
+      // Los jugadores reciben sus pendientes al entrar, el poll solo recoge los de otros servidores
+      long poll = Math.max(UltraEconomy.config.getPendingTransactionsPoll().toMillis(), 1000);
       transactionExecutor.scheduleWithFixedDelay(
         this::safeCheckAndApplyTransactions,
         0,
-        2,
-        TimeUnit.SECONDS
+        poll,
+        TimeUnit.MILLISECONDS
       );
+      if (UltraEconomy.config.isNotifyPendingTransactions()) {
+        journal.setPendingListener(uuids -> transactionExecutor.execute(() -> applyPendingTransactions(uuids)));
+      }
 
       CobbleUtils.LOGGER.info("Connected to MongoDB");
 
@@ -116,12 +127,7 @@ public class MongoDBClient extends DatabaseClient {
       return;
     }
 
-    try {
-      checkAndApplyTransactions();
-    } catch (Exception e) {
-      CobbleUtils.LOGGER.error("Transaction worker crashed");
-      e.printStackTrace();
-    }
+    pollPendingTransactions();
   }
 
 
@@ -135,6 +141,10 @@ public class MongoDBClient extends DatabaseClient {
       if (!existingIndexes.contains("uuid_1")) {
         accountsCollection.createIndex(new Document(FIELD_UUID, 1));
       }
+      backfillLowerNames();
+      if (!existingIndexes.contains(FIELD_PLAYER_NAME_LOWER + "_1")) {
+        accountsCollection.createIndex(new Document(FIELD_PLAYER_NAME_LOWER, 1));
+      }
 
       existingIndexes.clear();
       for (Document index : transactionsCollection.listIndexes()) {
@@ -150,6 +160,9 @@ public class MongoDBClient extends DatabaseClient {
       if (!existingIndexes.contains("processed_1")) {
         transactionsCollection.createIndex(new Document(FIELD_PROCESSED, 1));
       }
+      if (!existingIndexes.contains("account_uuid_1_processed_1")) {
+        transactionsCollection.createIndex(new Document(FIELD_ACCOUNT_UUID, 1).append(FIELD_PROCESSED, 1));
+      }
 
       CobbleUtils.LOGGER.info("Indexes verified/created successfully.");
     } catch (Exception e) {
@@ -157,6 +170,17 @@ public class MongoDBClient extends DatabaseClient {
     }
   }
 
+  // Cuentas de versiones anteriores, sin nombre normalizado (update con pipeline, MongoDB 4.2+)
+  private void backfillLowerNames() {
+    var result = accountsCollection.updateMany(
+      Filters.and(Filters.exists(FIELD_PLAYER_NAME_LOWER, false), Filters.type(FIELD_PLAYER_NAME, "string")),
+      List.of(Updates.set(FIELD_PLAYER_NAME_LOWER, new Document("$toLower", "$" + FIELD_PLAYER_NAME)))
+    );
+    if (result.getModifiedCount() > 0) {
+      CobbleUtils.LOGGER.info("Normalized the name of " + result.getModifiedCount() + " accounts");
+    }
+  }
+
   @Override
   public synchronized void disconnect() {
     if (!connected.get()) return;
@@ -177,6 +201,8 @@ public class MongoDBClient extends DatabaseClient {
       transactionExecutor = null;
     }
 
+    if (journal != null) journal.close();
+
     if (mongoClient != null) {
       mongoClient.close();
       mongoClient = null;
@@ -202,10 +228,7 @@ public class MongoDBClient extends DatabaseClient {
   }
 
   @Override
-  public Account getAccount(UUID uuid) {
-    Account cached = DatabaseFactory.ACCOUNTS.getIfPresent(uuid);
-    if (cached != null) return cached;
-
+  public Account loadAccount(UUID uuid) {
     Document doc = accountsCollection.find(Filters.eq(FIELD_UUID, uuid.toString())).first();
     Account account;
     if (doc != null) {
@@ -215,6 +238,7 @@ public class MongoDBClient extends DatabaseClient {
       if (player != null) {
         account = new Account(player);
         saveOrUpdateAccount(account);
+        PlayerIndexManager.put(uuid, account.getPlayerName());
       } else {
         CobbleUtils.LOGGER.warn("Could not find player with UUID " + uuid);
         return null;
@@ -223,6 +247,30 @@ public class MongoDBClient extends DatabaseClient {
     return account;
   }
 
+  @Override
+  public Map<UUID, Account> getAccounts(Collection<UUID> uuids) {
+    Map<UUID, Account> accounts = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (UUID uuid : new LinkedHashSet<>(uuids)) {
+      Account cached = DatabaseFactory.ACCOUNTS.getIfPresent(uuid);
+      if (cached != null) accounts.put(uuid, cached);
+      else missing.add(uuid.toString());
+    }
+    if (missing.isEmpty()) return accounts;
+
+    try {
+      for (int i = 0; i < missing.size(); i += BULK_READ_SIZE) {
+        accountsCollection.find(Filters.in(FIELD_UUID, missing.subList(i, Math.min(i + BULK_READ_SIZE, missing.size()))))
+          .map(Account::fromDocument)
+          .forEach(account -> accounts.put(account.getPlayerUUID(), account));
+      }
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error("Error fetching " + missing.size() + " accounts");
+      e.printStackTrace();
+    }
+    return accounts;
+  }
+
   @Override
   public void saveOrUpdateAccount(Account account) {
     UltraEconomy.runAsync(() -> saveAccount(account));
@@ -233,6 +281,20 @@ public class MongoDBClient extends DatabaseClient {
     saveAccount(account);
   }
 
+  @Override
+  public void saveOrUpdateAccountsSync(Collection<Account> accounts) {
+    if (accounts.isEmpty()) return;
+    List<WriteModel<Document>> writes = new ArrayList<>(accounts.size());
+    for (Account account : accounts) {
+      writes.add(new ReplaceOneModel<>(
+        Filters.eq(FIELD_UUID, account.getPlayerUUID().toString()),
+        account.toDocument(),
+        new ReplaceOptions().upsert(true)
+      ));
+    }
+    accountsCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+  }
+
   private void saveAccount(Account account) {
     if (account == null) {
       CobbleUtils.LOGGER.warn("Tried to save a null account.");
@@ -247,11 +309,30 @@ public class MongoDBClient extends DatabaseClient {
     );
   }
 
-  public void addTransaction(UUID uuid, Currency currency, BigDecimal amount, TransactionType type, boolean processed) {
-    UltraEconomy.runAsync(() -> {
-      Transaction transaction = new Transaction(uuid, currency.getId(), amount, type, processed, Instant.now());
-      transactionsCollection.insertOne(transaction.toDocument());
+  @Override
+  protected void saveBalancesSync(Map<UUID, Map<String, BigDecimal>> balances, Map<UUID, String> names) {
+    List<WriteModel<Document>> writes = new ArrayList<>(balances.size());
+    balances.forEach((uuid, values) -> {
+      List<Bson> updates = new ArrayList<>(values.size() + 2);
+      values.forEach((currencyId, amount) ->
+        updates.add(Updates.set(FIELD_BALANCES + "." + currencyId, new Decimal128(amount))));
+      // Si la cuenta aún no se ha guardado el documento se crea con el nombre
+      String name = names.get(uuid);
+      if (name != null) {
+        updates.add(Updates.setOnInsert(FIELD_PLAYER_NAME, name));
+        updates.add(Updates.setOnInsert(FIELD_PLAYER_NAME_LOWER, name.toLowerCase(Locale.ROOT)));
+      }
+      writes.add(new UpdateOneModel<>(
+        Filters.eq(FIELD_UUID, uuid.toString()),
+        Updates.combine(updates),
+        new UpdateOptions().upsert(true)
+      ));
     });
+    accountsCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+  }
+
+  public void addTransaction(UUID uuid, Currency currency, BigDecimal amount, TransactionType type, boolean processed) {
+    journal.append(new Transaction(uuid, currency.getId(), amount, type, processed, Instant.now()));
   }
 
   @Override
@@ -326,10 +407,12 @@ public class MongoDBClient extends DatabaseClient {
 
   @Override
   public Account getAccountByName(String name) {
-    var filter = Filters.eq(FIELD_PLAYER_NAME, name);
+    var filter = Filters.eq(FIELD_PLAYER_NAME_LOWER, name.toLowerCase(Locale.ROOT));
     Document doc = accountsCollection.find(filter).first();
     if (doc != null) {
-      return Account.fromDocument(doc);
+      Account account = Account.fromDocument(doc);
+      // Si ya estaba en caché se devuelve esa, que puede tener cambios sin guardar
+      return DatabaseFactory.ACCOUNTS.get(account.getPlayerUUID(), uuid -> getWriteBehind().adopt(account));
     }
     return null;
   }
@@ -390,55 +473,26 @@ public class MongoDBClient extends DatabaseClient {
   }
 
 
-  private void checkAndApplyTransactions() {
-    if (shuttingDown.get()) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Skipping transaction processing, shutting down.");
-      return;
-    }
-    if (!runningTransactions) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Skipping transaction processing, not running.");
-      return;
-    }
-    if (UltraEconomy.server == null) {
-      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Skipping transaction processing, server not ready.");
-      return;
-    }
-
-    var players = UltraEconomy.server.getPlayerManager().getPlayerList();
-    List<String> uuids = players.stream()
-      .map(Entity::getUuidAsString)
+  @Override
+  public void applyPendingTransactions(Collection<UUID> uuids) {
+    if (shuttingDown.get() || !runningTransactions) return;
+    List<String> cached = cachedOnly(uuids).stream()
+      .map(UUID::toString)
       .toList();
-
-    if (uuids.isEmpty()) return;
+    if (cached.isEmpty()) return;
 
     try {
-      Document tx;
-      if (shuttingDown.get()) {
-        CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Aborting transaction processing, shutting down.");
-        return;
-      }
-      while ((tx = transactionsCollection.findOneAndUpdate(
-        Filters.and(
-          Filters.eq(FIELD_PROCESSED, false),
-          Filters.in(FIELD_ACCOUNT_UUID, uuids)
-        ),
-        Updates.set(FIELD_PROCESSED, true)
-      )) != null) {
+      List<Document> pending = transactionsCollection.find(Filters.and(
+          Filters.in(FIELD_ACCOUNT_UUID, cached),
+          Filters.eq(FIELD_PROCESSED, false)
+        ))
+        .sort(Sorts.ascending("_id"))
+        .into(new ArrayList<>());
+
+      for (Document tx : pending) {
+        if (shuttingDown.get()) return;
         UUID uuid = UUID.fromString(tx.getString(FIELD_ACCOUNT_UUID));
-        ServerPlayerEntity player = UltraEconomy.server.getPlayerManager().getPlayer(uuid);
-        Account account = getCachedAccount(uuid);
-        if (account == null || player == null || player.isDisconnected()) {
-          if (UltraEconomy.config.isDebug())
-            CobbleUtils.LOGGER.warn("Account not found in cache for transaction: " + tx.toJson());
-          transactionsCollection.updateOne(
-            Filters.eq("_id", tx.getObjectId("_id")),
-            Updates.set(FIELD_PROCESSED, false)
-          );
-          continue;
-        }
-
-        String currencyId = tx.getString(FIELD_CURRENCY_ID);
-        Currency currency = Currencies.getCurrency(currencyId);
+        Currency currency = Currencies.getCurrency(tx.getString(FIELD_CURRENCY_ID));
         BigDecimal amount;
         Object rawAmount = tx.get(FIELD_AMOUNT);
         switch (rawAmount) {
@@ -448,7 +502,7 @@ public class MongoDBClient extends DatabaseClient {
           case Long l -> amount = BigDecimal.valueOf(l);
           case Double d -> amount = BigDecimal.valueOf(d);
           case Float f -> amount = BigDecimal.valueOf(f);
-          default -> {
+          case null, default -> {
             CobbleUtils.LOGGER.error("Unknown amount type in transaction: " + tx.toJson());
             continue;
           }
@@ -456,24 +510,28 @@ public class MongoDBClient extends DatabaseClient {
 
         TransactionType type;
         try {
-          type = TransactionType.valueOf(tx.getString("type"));
-        } catch (IllegalArgumentException ex) {
+          type = TransactionType.valueOf(tx.getString(FIELD_TYPE));
+        } catch (IllegalArgumentException | NullPointerException ex) {
           CobbleUtils.LOGGER.error("Invalid transaction type: " + tx.toJson());
-          ex.printStackTrace();
+          continue;
+        }
+        if (type == TransactionType.TRANSFER) {
+          CobbleUtils.LOGGER.error("Unknown transaction type: " + type);
           continue;
         }
 
-        switch (type) {
-          case DEPOSIT -> UltraEconomyApi.deposit(uuid, currency.getId(), amount);
-          case WITHDRAW -> UltraEconomyApi.withdraw(uuid, currency.getId(), amount);
-          case SET -> UltraEconomyApi.setBalance(uuid, currency.getId(), amount);
-          default -> {
-            CobbleUtils.LOGGER.error("Unknown transaction type: " + type);
-            continue;
-          }
+        // Solo aplica quien consigue marcarla, así nunca se aplica dos veces
+        long claimed = transactionsCollection.updateOne(
+          Filters.and(Filters.eq("_id", tx.getObjectId("_id")), Filters.eq(FIELD_PROCESSED, false)),
+          Updates.set(FIELD_PROCESSED, true)
+        ).getModifiedCount();
+        if (claimed != 1) continue;
+
+        if (!applyPendingTransaction(uuid, currency, amount, type)) {
+          // La cuenta salió de la caché, se deja pendiente para cuando vuelva a cargarse
+          transactionsCollection.updateOne(Filters.eq("_id", tx.getObjectId("_id")), Updates.set(FIELD_PROCESSED, false));
+          continue;
         }
-        saveOrUpdateAccount(account);
-        //DatabaseFactory.ACCOUNTS.put(uuid, account);
         if (CobbleUtils.config.isDebug()) {
           CobbleUtils.LOGGER.info("Processed transaction: " + tx.toJson());
         }
@@ -499,7 +557,10 @@ public class MongoDBClient extends DatabaseClient {
         CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Account found in cache for UUID: " + uuid + ", adding balance.");
       }
       result = account.addBalance(currency, amount);
-      if (result) addTransaction(uuid, currency, amount, TransactionType.DEPOSIT, true);
+      if (result) {
+        markDirty(account, currency);
+        addTransaction(uuid, currency, amount, TransactionType.DEPOSIT, true);
+      }
     }
     return result;
   }
@@ -518,11 +579,73 @@ public class MongoDBClient extends DatabaseClient {
         CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Account found in cache for UUID: " + uuid + ", removing balance.");
       }
       result = account.removeBalance(currency, amount);
+      if (!result) return false;
+      markDirty(account, currency);
       addTransaction(uuid, currency, amount, TransactionType.WITHDRAW, true);
     }
     return result;
   }
 
+  @Override
+  protected TransactionResult tryWithdrawStored(UUID uuid, Currency currency, BigDecimal amount) {
+    String field = FIELD_BALANCES + "." + currency.getId();
+    try {
+      if (withdrawStored(uuid, currency, field, amount)) return TransactionResult.SUCCESS;
+      Document doc = accountsCollection.find(Filters.eq(FIELD_UUID, uuid.toString()))
+        .projection(Projections.include(FIELD_UUID, field))
+        .first();
+      if (doc == null) return TransactionResult.UNKNOWN_ACCOUNT;
+      // Versiones antiguas guardaban el saldo como texto: ni $gte ni $inc funcionan sobre él
+      Document balances = doc.get(FIELD_BALANCES, Document.class);
+      if (balances != null && balances.get(currency.getId()) instanceof String stored
+        && convertStoredBalance(uuid, field, stored) && withdrawStored(uuid, currency, field, amount)) {
+        return TransactionResult.SUCCESS;
+      }
+      return TransactionResult.INSUFFICIENT_FUNDS;
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error withdrawing " + amount + " " + currency.getId() + " from " + uuid);
+      e.printStackTrace();
+      return TransactionResult.FAILED;
+    }
+  }
+
+  // El filtro y el $inc se aplican en el mismo documento de forma atómica
+  private boolean withdrawStored(UUID uuid, Currency currency, String field, BigDecimal amount) {
+    Document updated = accountsCollection.findOneAndUpdate(
+      Filters.and(Filters.eq(FIELD_UUID, uuid.toString()), Filters.gte(field, new Decimal128(amount))),
+      Updates.inc(field, new Decimal128(amount.negate())),
+      new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)
+    );
+    if (updated == null) return false;
+    Document balances = updated.get(FIELD_BALANCES, Document.class);
+    if (balances != null && balances.get(currency.getId()) instanceof Decimal128 balance) {
+      LeaderboardManager.update(uuid, null, currency, balance.bigDecimalValue());
+    }
+    return true;
+  }
+
+  /**
+   * Replace a balance stored as text with the same value as Decimal128, only if it did not change
+   *
+   * @return true if the balance is now a Decimal128
+   */
+  private boolean convertStoredBalance(UUID uuid, String field, String stored) {
+    BigDecimal value;
+    try {
+      value = new BigDecimal(stored);
+    } catch (NumberFormatException e) {
+      CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Invalid balance format for " + field + " in account " + uuid
+        + ": " + stored);
+      return false;
+    }
+    accountsCollection.updateOne(
+      Filters.and(Filters.eq(FIELD_UUID, uuid.toString()), Filters.eq(field, stored)),
+      Updates.set(field, new Decimal128(value))
+    );
+    // Si otro lo convirtió antes también vale
+    return true;
+  }
+
   @Override
   public BigDecimal setBalance(UUID uuid, Currency currency, BigDecimal amount) {
     Account account = getCachedAccount(uuid);
@@ -531,16 +654,18 @@ public class MongoDBClient extends DatabaseClient {
         CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Account not found in cache for UUID: " + uuid + ", queuing transaction.");
       }
       addTransaction(uuid, currency, amount, TransactionType.SET, false);
+      var filter = Filters.eq(FIELD_UUID, uuid.toString());
+      var update = Updates.set(FIELD_BALANCES + "." + currency.getId(), new Decimal128(amount));
+      accountsCollection.updateOne(filter, update);
+      LeaderboardManager.update(uuid, null, currency, amount);
     } else {
       if (UltraEconomy.config.isDebug()) {
         CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Account found in cache for UUID: " + uuid + ", setting balance.");
       }
       account.setBalance(currency, amount);
+      markDirty(account, currency);
       addTransaction(uuid, currency, amount, TransactionType.SET, true);
     }
-    var filter = Filters.eq(FIELD_UUID, uuid.toString());
-    var update = Updates.set(FIELD_BALANCES + "." + currency.getId(), new Decimal128(amount));
-    accountsCollection.updateOne(filter, update);
     return amount;
   }
 
@@ -577,6 +702,51 @@ public class MongoDBClient extends DatabaseClient {
   }
 
 
+  @Override
+  public List<LeaderboardEntry> getAllBalances(Currency currency) {
+    List<LeaderboardEntry> entries = new ArrayList<>();
+    String field = FIELD_BALANCES + "." + currency.getId();
+    try {
+      for (Document doc : accountsCollection.find(Filters.exists(field, true))
+        .projection(Projections.include(FIELD_UUID, FIELD_PLAYER_NAME, field))
+        .batchSize(1000)) {
+        BigDecimal amount = Account.fromDocument(doc).getBalance(currency);
+        if (amount == null) continue;
+        entries.add(new LeaderboardEntry(UUID.fromString(doc.getString(FIELD_UUID)), doc.getString(FIELD_PLAYER_NAME),
+          amount));
+      }
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error("Error fetching balances of " + currency.getId());
+      e.printStackTrace();
+    }
+    return entries;
+  }
+
+  @Override
+  public Map<UUID, String> getPlayerNames() {
+    Map<UUID, String> names = new HashMap<>();
+    try {
+      for (Document doc : accountsCollection.find()
+        .projection(Projections.include(FIELD_UUID, FIELD_PLAYER_NAME))
+        .batchSize(1000)) {
+        String name = doc.getString(FIELD_PLAYER_NAME);
+        if (name != null) names.put(UUID.fromString(doc.getString(FIELD_UUID)), name);
+      }
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error("Error fetching player names");
+      e.printStackTrace();
+    }
+    return names;
+  }
+
+  @Override
+  public UUID getUUIDByName(String name) {
+    Document doc = accountsCollection.find(Filters.eq(FIELD_PLAYER_NAME_LOWER, name.toLowerCase(Locale.ROOT)))
+      .projection(Projections.include(FIELD_UUID))
+      .first();
+    return doc != null ? UUID.fromString(doc.getString(FIELD_UUID)) : null;
+  }
+
   @Override
   public boolean existPlayerWithUUID(UUID uuid) {
     Document doc = accountsCollection.find(Filters.eq(FIELD_UUID, uuid.toString())).first();
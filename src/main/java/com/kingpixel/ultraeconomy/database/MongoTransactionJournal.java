@@ -0,0 +1,68 @@
+package com.kingpixel.ultraeconomy.database;
+
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.models.JournalConfig;
+import com.kingpixel.ultraeconomy.models.Transaction;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes journal batches with a single unordered insertMany on its own thread,
+ * so transaction history no longer competes with account saves for the shared executor.
+ * <p>
+ * Every transaction gets its {@code _id} before the first attempt, so a retry after a partial or
+ * ambiguous failure only hits duplicate key errors for the rows that were already written.
+ */
+public class MongoTransactionJournal extends TransactionJournal {
+  private static final InsertManyOptions OPTIONS = new InsertManyOptions().ordered(false);
+  private final MongoCollection<Document> collection;
+
+  public MongoTransactionJournal(MongoCollection<Document> collection, JournalConfig config) {
+    super("UltraEconomy-Transaction-Journal", config);
+    this.collection = collection.withWriteConcern(parseWriteConcern(config.getWriteConcern()));
+  }
+
+  @Override
+  protected void writeBatch(List<Transaction> batch, boolean retry) {
+    List<Document> documents = new ArrayList<>(batch.size());
+    for (Transaction transaction : batch) {
+      if (transaction.getId() == null) transaction.setId(new ObjectId());
+      documents.add(transaction.toDocument());
+    }
+    try {
+      collection.insertMany(documents, OPTIONS);
+    } catch (MongoBulkWriteException e) {
+      // Las filas duplicadas ya se escribieron en un intento anterior
+      boolean onlyDuplicates = e.getWriteConcernError() == null && e.getWriteErrors().stream()
+        .allMatch(error -> ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY);
+      if (!onlyDuplicates) throw e;
+    }
+  }
+
+  private static WriteConcern parseWriteConcern(String value) {
+    if (value == null) return WriteConcern.ACKNOWLEDGED;
+    return switch (value.toUpperCase(Locale.ROOT)) {
+      case "ACKNOWLEDGED" -> WriteConcern.ACKNOWLEDGED;
+      case "UNACKNOWLEDGED" -> WriteConcern.UNACKNOWLEDGED;
+      case "W1" -> WriteConcern.W1;
+      case "W2" -> WriteConcern.W2;
+      case "W3" -> WriteConcern.W3;
+      case "MAJORITY" -> WriteConcern.MAJORITY;
+      case "JOURNALED" -> WriteConcern.JOURNALED;
+      default -> {
+        CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Unknown journal write concern " + value + ", using ACKNOWLEDGED");
+        yield WriteConcern.ACKNOWLEDGED;
+      }
+    };
+  }
+}
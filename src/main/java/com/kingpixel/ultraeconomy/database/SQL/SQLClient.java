@@ -3,15 +3,19 @@ package com.kingpixel.ultraeconomy.database.SQL;
 import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.cobbleutils.Model.DataBaseConfig;
 import com.kingpixel.cobbleutils.Model.DataBaseType;
-import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
+import com.kingpixel.ultraeconomy.UltraEconomy;
 import com.kingpixel.ultraeconomy.config.Currencies;
 import com.kingpixel.ultraeconomy.database.DatabaseClient;
 import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.database.TransactionResult;
 import com.kingpixel.ultraeconomy.database.TransactionType;
 import com.kingpixel.ultraeconomy.exceptions.DatabaseConnectionException;
 import com.kingpixel.ultraeconomy.exceptions.UnknownAccountException;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
+import com.kingpixel.ultraeconomy.manager.PlayerIndexManager;
 import com.kingpixel.ultraeconomy.models.Account;
 import com.kingpixel.ultraeconomy.models.Currency;
+import com.kingpixel.ultraeconomy.models.LeaderboardEntry;
 import com.kingpixel.ultraeconomy.models.Transaction;
 import com.zaxxer.hikari.HikariDataSource;
 import lombok.Data;
@@ -27,6 +31,8 @@ import java.util.function.Consumer;
 @Data
 public class SQLClient extends DatabaseClient {
   private static final String KEY_AMOUNT = "amount";
+  private static final int BATCH_SIZE = 500;
+  private static final int MAX_WITHDRAW_ATTEMPTS = 5;
   private DataBaseType dbType;
   private HikariDataSource dataSource;
   private ScheduledExecutorService transactionExecutor;
@@ -47,6 +53,9 @@ public class SQLClient extends DatabaseClient {
       initTables(config.getType());
       createIndexes(); // Ya no necesitas ensureProcessedColumnExists() si lo incluyes en initTables
 
+      journal = new SQLTransactionJournal(dataSource, UltraEconomy.config.getJournal());
+      journal.start();
+
       transactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
         Thread t = new Thread(r, "Transaction-Worker-UltraEconomy");
         t.setDaemon(true);
@@ -54,7 +63,12 @@ public class SQLClient extends DatabaseClient {
       });
 
       runningTransactions = true;
-      transactionExecutor.scheduleAtFixedRate(this::checkAndApplyTransactions, 0, 2, TimeUnit.SECONDS);
+      // Los jugadores reciben sus pendientes al entrar, el poll solo recoge los de otros servidores
+      long poll = Math.max(UltraEconomy.config.getPendingTransactionsPoll().toMillis(), 1000);
+      transactionExecutor.scheduleWithFixedDelay(this::checkAndApplyTransactions, 0, poll, TimeUnit.MILLISECONDS);
+      if (UltraEconomy.config.isNotifyPendingTransactions()) {
+        journal.setPendingListener(uuids -> transactionExecutor.execute(() -> applyPendingTransactions(uuids)));
+      }
 
     } catch (Exception e) {
       throw new DatabaseConnectionException(config.getType().name());
@@ -66,6 +80,8 @@ public class SQLClient extends DatabaseClient {
   public void disconnect() {
     runningTransactions = false;
     if (transactionExecutor != null) CobbleUtils.shutdownAndAwait(transactionExecutor);
+    // Los movimientos pendientes se escriben antes de cerrar el pool
+    if (journal != null) journal.close();
     if (asyncExecutor != null) CobbleUtils.shutdownAndAwait(asyncExecutor);
     if (dataSource != null && !dataSource.isClosed()) dataSource.close();
     CobbleUtils.LOGGER.info("Disconnected from database.");
@@ -77,37 +93,71 @@ public class SQLClient extends DatabaseClient {
   }
 
   @Override
-  public Account getAccount(UUID uuid) {
-    Account cached = DatabaseFactory.ACCOUNTS.getIfPresent(uuid);
-    if (cached != null) return cached;
+  public Account loadAccount(UUID uuid) {
+    try (Connection conn = dataSource.getConnection();
+         PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectAccountWithBalancesByUUID())) {
+      stmt.setString(1, uuid.toString());
+      Account account = readAccounts(stmt.executeQuery()).get(uuid);
+      if (account == null) {
+        var player = CobbleUtils.server.getPlayerManager().getPlayer(uuid);
+        if (player == null) return null;
+        account = new Account(player);
+        saveOrUpdateAccount(account);
+        PlayerIndexManager.put(uuid, account.getPlayerName());
+      }
+      return account;
+    } catch (SQLException e) {
+      throw new UnknownAccountException(uuid);
+    }
+  }
+
+  @Override
+  public Map<UUID, Account> getAccounts(Collection<UUID> uuids) {
+    Map<UUID, Account> accounts = new HashMap<>();
+    List<UUID> missing = new ArrayList<>();
+    for (UUID uuid : new LinkedHashSet<>(uuids)) {
+      Account cached = DatabaseFactory.ACCOUNTS.getIfPresent(uuid);
+      if (cached != null) accounts.put(uuid, cached);
+      else missing.add(uuid);
+    }
+    if (missing.isEmpty()) return accounts;
 
     try (Connection conn = dataSource.getConnection()) {
-      Account account;
-      try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectAccountByUUID())) {
-        stmt.setString(1, uuid.toString());
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-          Map<String, BigDecimal> balances = new HashMap<>();
-          try (PreparedStatement balStmt = conn.prepareStatement(SQLSentences.selectBalancesByUUID())) {
-            balStmt.setString(1, uuid.toString());
-            ResultSet balRs = balStmt.executeQuery();
-            while (balRs.next())
-              balances.put(balRs.getString("currency_id"), balRs.getBigDecimal(KEY_AMOUNT));
-          }
-          account = new Account(uuid, rs.getString("player_name"), balances);
-        } else {
-          var player = CobbleUtils.server.getPlayerManager().getPlayer(uuid);
-          if (player != null) {
-            account = new Account(player);
-            saveOrUpdateAccount(account);
-          } else return null;
+      for (int i = 0; i < missing.size(); i += BATCH_SIZE) {
+        List<UUID> chunk = missing.subList(i, Math.min(i + BATCH_SIZE, missing.size()));
+        try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectAccountsWithBalances(chunk.size()))) {
+          for (int j = 0; j < chunk.size(); j++) stmt.setString(j + 1, chunk.get(j).toString());
+          accounts.putAll(readAccounts(stmt.executeQuery()));
         }
       }
-      DatabaseFactory.ACCOUNTS.put(uuid, account);
-      return account;
     } catch (SQLException e) {
-      throw new UnknownAccountException(uuid);
+      CobbleUtils.LOGGER.error("Error fetching " + missing.size() + " accounts");
+      e.printStackTrace();
     }
+    return accounts;
+  }
+
+  /**
+   * Build the accounts of a {@code SELECT a.uuid, a.player_name, b.currency_id, b.amount ... LEFT JOIN balances}
+   * result in a single pass
+   *
+   * @param rs The result, one row per balance
+   *
+   * @return The accounts in the order of the result
+   */
+  private Map<UUID, Account> readAccounts(ResultSet rs) throws SQLException {
+    Map<UUID, String> names = new LinkedHashMap<>();
+    Map<UUID, Map<String, BigDecimal>> balances = new HashMap<>();
+    while (rs.next()) {
+      UUID uuid = UUID.fromString(rs.getString("uuid"));
+      names.putIfAbsent(uuid, rs.getString("player_name"));
+      Map<String, BigDecimal> accountBalances = balances.computeIfAbsent(uuid, k -> new HashMap<>());
+      String currencyId = rs.getString("currency_id");
+      if (currencyId != null) accountBalances.put(currencyId, rs.getBigDecimal(KEY_AMOUNT));
+    }
+    Map<UUID, Account> accounts = new LinkedHashMap<>();
+    names.forEach((uuid, name) -> accounts.put(uuid, new Account(uuid, name, balances.get(uuid))));
+    return accounts;
   }
 
   public void getAccountAsync(UUID uuid, Consumer<Account> callback) {
@@ -125,24 +175,54 @@ public class SQLClient extends DatabaseClient {
   }
 
   private void saveAccount(Account account) {
+    saveAccounts(List.of(account));
+  }
+
+  @Override
+  public void saveOrUpdateAccountsSync(Collection<Account> accounts) {
+    saveAccounts(accounts);
+  }
+
+  /**
+   * Upsert many accounts and all their balances in a single transaction.
+   * One statement is prepared per table and rows are sent with executeBatch every {@link #BATCH_SIZE} rows.
+   */
+  private void saveAccounts(Collection<Account> accounts) {
+    if (accounts.isEmpty()) return;
     try (Connection conn = dataSource.getConnection()) {
       conn.setAutoCommit(false);
-      try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.insertAccount())) {
-        stmt.setString(1, account.getPlayerUUID().toString());
-        stmt.setString(2, account.getPlayerName());
-        stmt.executeUpdate();
-      }
-      for (Map.Entry<String, BigDecimal> entry : account.getBalances().entrySet()) {
-        try (PreparedStatement balStmt = conn.prepareStatement(SQLSentences.insertBalance())) {
-          balStmt.setString(1, account.getPlayerUUID().toString());
-          balStmt.setString(2, entry.getKey());
-          balStmt.setBigDecimal(3, entry.getValue());
-          balStmt.executeUpdate();
+      try (PreparedStatement accStmt = conn.prepareStatement(SQLSentences.insertAccount());
+           PreparedStatement balStmt = conn.prepareStatement(SQLSentences.insertBalance())) {
+        int accRows = 0;
+        int balRows = 0;
+        for (Account account : accounts) {
+          String uuid = account.getPlayerUUID().toString();
+          accStmt.setString(1, uuid);
+          accStmt.setString(2, account.getPlayerName());
+          accStmt.setString(3, lowerName(account.getPlayerName()));
+          accStmt.addBatch();
+          if (++accRows % BATCH_SIZE == 0) accStmt.executeBatch();
         }
+        // Accounts go first so the balances foreign key is always satisfied
+        if (accRows % BATCH_SIZE != 0) accStmt.executeBatch();
+        for (Account account : accounts) {
+          String uuid = account.getPlayerUUID().toString();
+          for (Map.Entry<String, BigDecimal> entry : account.getBalances().entrySet()) {
+            balStmt.setString(1, uuid);
+            balStmt.setString(2, entry.getKey());
+            balStmt.setBigDecimal(3, entry.getValue());
+            balStmt.addBatch();
+            if (++balRows % BATCH_SIZE == 0) balStmt.executeBatch();
+          }
+        }
+        if (balRows % BATCH_SIZE != 0) balStmt.executeBatch();
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
       }
-      conn.commit();
     } catch (SQLException e) {
-      CobbleUtils.LOGGER.error("Error saving account " + account.getPlayerUUID());
+      CobbleUtils.LOGGER.error("Error saving " + accounts.size() + " accounts");
       e.printStackTrace();
     }
   }
@@ -156,7 +236,10 @@ public class SQLClient extends DatabaseClient {
       result = true;
     } else {
       result = account.addBalance(currency, amount);
-      if (result) addTransaction(uuid, currency, amount, TransactionType.DEPOSIT, true);
+      if (result) {
+        markDirty(account, currency);
+        addTransaction(uuid, currency, amount, TransactionType.DEPOSIT, true);
+      }
     }
     return result;
   }
@@ -170,11 +253,114 @@ public class SQLClient extends DatabaseClient {
       result = true;
     } else {
       result = account.removeBalance(currency, amount);
-      if (result) addTransaction(uuid, currency, amount, TransactionType.WITHDRAW, true);
+      if (result) {
+        markDirty(account, currency);
+        addTransaction(uuid, currency, amount, TransactionType.WITHDRAW, true);
+      }
     }
     return result;
   }
 
+  @Override
+  protected TransactionResult tryWithdrawStored(UUID uuid, Currency currency, BigDecimal amount) {
+    try (Connection conn = dataSource.getConnection()) {
+      TransactionResult result = debit(conn, uuid, currency, amount);
+      if (result.isSuccess()) LeaderboardManager.update(uuid, null, currency, readBalance(conn, uuid, currency));
+      return result;
+    } catch (SQLException e) {
+      CobbleUtils.LOGGER.error("Error withdrawing " + amount + " " + currency.getId() + " from " + uuid);
+      e.printStackTrace();
+      return TransactionResult.FAILED;
+    }
+  }
+
+  @Override
+  protected TransactionResult transferStored(UUID from, UUID to, Currency currency, BigDecimal amount,
+                                             boolean creditStored) {
+    // Débito, historial y depósito pendiente en una sola transacción de la base de datos
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        TransactionResult result = debit(conn, from, currency, amount);
+        if (!result.isSuccess()) {
+          conn.rollback();
+          return result;
+        }
+        List<Transaction> rows = new ArrayList<>(2);
+        rows.add(transferTransaction(from, to, currency, amount));
+        if (creditStored) rows.add(new Transaction(to, currency.getId(), amount, TransactionType.DEPOSIT, false));
+        try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.insertTransactions(rows.size()))) {
+          SQLTransactionJournal.bind(stmt, rows);
+          stmt.executeUpdate();
+        }
+        conn.commit();
+        LeaderboardManager.update(from, null, currency, readBalance(conn, from, currency));
+        // Por si el receptor entró mientras tanto y ya aplicó sus pendientes
+        if (creditStored) transactionExecutor.execute(() -> applyPendingTransactions(List.of(to)));
+        return result;
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      CobbleUtils.LOGGER.error("Error transferring " + amount + " " + currency.getId() + " from " + from + " to " + to);
+      e.printStackTrace();
+      return TransactionResult.FAILED;
+    }
+  }
+
+  // Descuenta solo si hay saldo suficiente, no hace commit
+  private TransactionResult debit(Connection conn, UUID uuid, Currency currency, BigDecimal amount) throws SQLException {
+    if (dbType == DataBaseType.SQLITE) return debitCompareAndSet(conn, uuid, currency, amount);
+    try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.withdrawBalanceIfEnough())) {
+      stmt.setBigDecimal(1, amount);
+      stmt.setString(2, uuid.toString());
+      stmt.setString(3, currency.getId());
+      stmt.setBigDecimal(4, amount);
+      if (stmt.executeUpdate() == 1) return TransactionResult.SUCCESS;
+    }
+    return readBalance(conn, uuid, currency) == null ? TransactionResult.UNKNOWN_ACCOUNT
+      : TransactionResult.INSUFFICIENT_FUNDS;
+  }
+
+  // SQLite guarda amount como TEXT: se lee, se calcula y solo se escribe si nadie lo cambió entre medias
+  private TransactionResult debitCompareAndSet(Connection conn, UUID uuid, Currency currency,
+                                              BigDecimal amount) throws SQLException {
+    for (int attempt = 0; attempt < MAX_WITHDRAW_ATTEMPTS; attempt++) {
+      String stored;
+      try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectBalance())) {
+        stmt.setString(1, uuid.toString());
+        stmt.setString(2, currency.getId());
+        try (ResultSet rs = stmt.executeQuery()) {
+          if (!rs.next()) return TransactionResult.UNKNOWN_ACCOUNT;
+          stored = rs.getString(KEY_AMOUNT);
+        }
+      }
+      BigDecimal balance = new BigDecimal(stored);
+      if (balance.compareTo(amount) < 0) return TransactionResult.INSUFFICIENT_FUNDS;
+      BigDecimal newBalance = balance.subtract(amount);
+      try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.updateBalanceIfUnchanged())) {
+        stmt.setBigDecimal(1, newBalance);
+        stmt.setString(2, uuid.toString());
+        stmt.setString(3, currency.getId());
+        stmt.setString(4, stored);
+        if (stmt.executeUpdate() == 1) return TransactionResult.SUCCESS;
+      }
+    }
+    CobbleUtils.LOGGER.warn("Could not withdraw from " + uuid + ", the balance kept changing");
+    return TransactionResult.FAILED;
+  }
+
+  private BigDecimal readBalance(Connection conn, UUID uuid, Currency currency) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectBalance())) {
+      stmt.setString(1, uuid.toString());
+      stmt.setString(2, currency.getId());
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next() ? rs.getBigDecimal(KEY_AMOUNT) : null;
+      }
+    }
+  }
+
   @Override
   public BigDecimal setBalance(UUID uuid, Currency currency, BigDecimal amount) {
     Account account = getCachedAccount(uuid);
@@ -182,24 +368,12 @@ public class SQLClient extends DatabaseClient {
       addTransaction(uuid, currency, amount, TransactionType.SET, false);
     } else {
       account.setBalance(currency, amount);
+      markDirty(account, currency);
       addTransaction(uuid, currency, amount, TransactionType.SET, true);
-      saveBalanceSafe(uuid, currency, amount);
     }
     return amount;
   }
 
-  private void saveBalanceSafe(UUID uuid, Currency currency, BigDecimal amount) {
-    asyncExecutor.submit(() -> {
-      try {
-        saveBalance(uuid, currency, amount);
-        DatabaseFactory.ACCOUNTS.invalidate(uuid);
-      } catch (SQLException e) {
-        CobbleUtils.LOGGER.error("Error saving balance for " + uuid);
-        e.printStackTrace();
-      }
-    });
-  }
-
   @Override
   public BigDecimal getBalance(UUID uuid, Currency currency) {
     return getAccount(uuid).getBalance(currency);
@@ -218,9 +392,10 @@ public class SQLClient extends DatabaseClient {
     try (Connection conn = dataSource.getConnection();
          PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectTopBalances())) {
       stmt.setString(1, currency.getId());
-      stmt.setInt(2, playersPerPage);
+      stmt.setInt(2, playersPerPage + 1); // To know if there's a next page
       stmt.setInt(3, offset);
       ResultSet rs = stmt.executeQuery();
+      int rank = offset + 1;
       while (rs.next()) {
         UUID uuid = UUID.fromString(rs.getString("uuid"));
         String playerName = rs.getString("player_name");
@@ -229,6 +404,7 @@ public class SQLClient extends DatabaseClient {
         Map<String, BigDecimal> balances = new HashMap<>();
         balances.put(currency.getId(), amount);
         Account account = new Account(uuid, playerName, balances);
+        account.setRank(rank++);
         topAccounts.add(account);
       }
     } catch (SQLException e) {
@@ -239,6 +415,57 @@ public class SQLClient extends DatabaseClient {
     return topAccounts;
   }
 
+  @Override
+  public List<LeaderboardEntry> getAllBalances(Currency currency) {
+    List<LeaderboardEntry> entries = new ArrayList<>();
+    try (Connection conn = dataSource.getConnection();
+         PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectAllBalances())) {
+      stmt.setFetchSize(1000);
+      stmt.setString(1, currency.getId());
+      ResultSet rs = stmt.executeQuery();
+      while (rs.next()) {
+        BigDecimal amount = rs.getBigDecimal(KEY_AMOUNT);
+        if (amount == null) continue;
+        entries.add(new LeaderboardEntry(UUID.fromString(rs.getString("uuid")), rs.getString("player_name"), amount));
+      }
+    } catch (SQLException e) {
+      CobbleUtils.LOGGER.error("Error fetching balances of " + currency.getId());
+      e.printStackTrace();
+    }
+    return entries;
+  }
+
+  @Override
+  public Map<UUID, String> getPlayerNames() {
+    Map<UUID, String> names = new HashMap<>();
+    try (Connection conn = dataSource.getConnection();
+         PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectAccountNames())) {
+      ResultSet rs = stmt.executeQuery();
+      while (rs.next()) {
+        String name = rs.getString("player_name");
+        if (name != null) names.put(UUID.fromString(rs.getString("uuid")), name);
+      }
+    } catch (SQLException e) {
+      CobbleUtils.LOGGER.error("Error fetching player names");
+      e.printStackTrace();
+    }
+    return names;
+  }
+
+  @Override
+  public UUID getUUIDByName(String name) {
+    try (Connection conn = dataSource.getConnection();
+         PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectUUIDByName())) {
+      stmt.setString(1, lowerName(name));
+      ResultSet rs = stmt.executeQuery();
+      if (rs.next()) return UUID.fromString(rs.getString("uuid"));
+    } catch (SQLException e) {
+      CobbleUtils.LOGGER.error("Error fetching uuid by name " + name);
+      e.printStackTrace();
+    }
+    return null;
+  }
+
   @Override
   public boolean existPlayerWithUUID(UUID uuid) {
     try (Connection conn = dataSource.getConnection();
@@ -255,21 +482,7 @@ public class SQLClient extends DatabaseClient {
 
 
   public void addTransaction(UUID uuid, Currency currency, BigDecimal amount, TransactionType type, boolean processed) {
-    asyncExecutor.execute(() -> {
-      String query = SQLSentences.insertTransaction();
-      try (Connection conn = dataSource.getConnection();
-           PreparedStatement stmt = conn.prepareStatement(query)) {
-        stmt.setString(1, uuid.toString());
-        stmt.setString(2, currency.getId());
-        stmt.setBigDecimal(3, amount);
-        stmt.setString(4, type.name());
-        stmt.setBoolean(5, processed);
-        stmt.executeUpdate();
-      } catch (SQLException e) {
-        CobbleUtils.LOGGER.error("Error adding transaction for " + uuid);
-        e.printStackTrace();
-      }
-    });
+    journal.append(new Transaction(uuid, currency.getId(), amount, type, processed));
   }
 
   @Override
@@ -289,44 +502,25 @@ public class SQLClient extends DatabaseClient {
 
   @Override
   public List<Account> getAccounts(int limit, int page) {
-    List<Account> accounts = new ArrayList<>();
     int offset = (page - 1) * limit;
 
-    String query = "SELECT uuid, player_name FROM accounts LIMIT ? OFFSET ?";
-
     try (Connection conn = dataSource.getConnection();
-         PreparedStatement stmt = conn.prepareStatement(query)) {
+         PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectAccountsPageWithBalances())) {
       stmt.setInt(1, limit);
       stmt.setInt(2, offset);
-      ResultSet rs = stmt.executeQuery();
-
-      while (rs.next()) {
-        UUID uuid = UUID.fromString(rs.getString("uuid"));
-        String playerName = rs.getString("player_name");
-
-        Map<String, BigDecimal> balances = new HashMap<>();
-        try (PreparedStatement balStmt = conn.prepareStatement(SQLSentences.selectBalancesByUUID())) {
-          balStmt.setString(1, uuid.toString());
-          ResultSet balRs = balStmt.executeQuery();
-          while (balRs.next()) {
-            balances.put(balRs.getString("currency_id"), balRs.getBigDecimal(KEY_AMOUNT));
-          }
-        }
-
-        accounts.add(new Account(uuid, playerName, balances));
-      }
+      return new ArrayList<>(readAccounts(stmt.executeQuery()).values());
     } catch (SQLException e) {
       CobbleUtils.LOGGER.error("Error fetching accounts");
       e.printStackTrace();
     }
 
-    return accounts;
+    return new ArrayList<>();
   }
 
   @Override
   public List<Transaction> getTransactions(UUID uuid, int limit) {
     List<Transaction> transactions = new ArrayList<>();
-    String query = "SELECT id, currency_id, amount, type, timestamp, processed FROM transactions WHERE account_uuid = ? ORDER BY timestamp DESC LIMIT ?";
+    String query = "SELECT id, currency_id, amount, type, timestamp, processed, transferred_to_account_uuid FROM transactions WHERE account_uuid = ? ORDER BY timestamp DESC LIMIT ?";
 
     try (Connection conn = dataSource.getConnection();
          PreparedStatement stmt = conn.prepareStatement(query)) {
@@ -341,6 +535,7 @@ public class SQLClient extends DatabaseClient {
         TransactionType type = TransactionType.valueOf(rs.getString("type"));
         Timestamp timestamp = rs.getTimestamp("timestamp");
         boolean processed = rs.getBoolean("processed");
+        String transferredTo = rs.getString("transferred_to_account_uuid");
 
         var transaction = Transaction.builder()
           .accountUUID(uuid)
@@ -349,6 +544,7 @@ public class SQLClient extends DatabaseClient {
           .type(type)
           .processed(processed)
           .timestamp(timestamp.toInstant())
+          .transferedToAccountUUID(transferredTo != null ? UUID.fromString(transferredTo) : null)
           .build();
 
         transactions.add(transaction);
@@ -363,28 +559,14 @@ public class SQLClient extends DatabaseClient {
 
   @Override
   public Account getAccountByName(String name) {
-    String query = "SELECT uuid, player_name FROM accounts WHERE player_name = ?";
-
     try (Connection conn = dataSource.getConnection();
-         PreparedStatement stmt = conn.prepareStatement(query)) {
-      stmt.setString(1, name);
-      ResultSet rs = stmt.executeQuery();
-
-      if (rs.next()) {
-        UUID uuid = UUID.fromString(rs.getString("uuid"));
-        Map<String, BigDecimal> balances = new HashMap<>();
-
-        try (PreparedStatement balStmt = conn.prepareStatement(SQLSentences.selectBalancesByUUID())) {
-          balStmt.setString(1, uuid.toString());
-          ResultSet balRs = balStmt.executeQuery();
-          while (balRs.next()) {
-            balances.put(balRs.getString("currency_id"), balRs.getBigDecimal(KEY_AMOUNT));
-          }
-        }
-
-        Account account = new Account(uuid, name, balances);
-        DatabaseFactory.ACCOUNTS.put(uuid, account); // Cacheamos la cuenta
-        return account;
+         PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectAccountWithBalancesByName())) {
+      stmt.setString(1, lowerName(name));
+      Map<UUID, Account> accounts = readAccounts(stmt.executeQuery());
+      if (!accounts.isEmpty()) {
+        Account account = accounts.values().iterator().next();
+        // Si ya estaba en caché se devuelve esa, que puede tener cambios sin guardar
+        return DatabaseFactory.ACCOUNTS.get(account.getPlayerUUID(), uuid -> getWriteBehind().adopt(account));
       }
     } catch (SQLException e) {
       CobbleUtils.LOGGER.error("Error fetching account by name " + name);
@@ -397,46 +579,62 @@ public class SQLClient extends DatabaseClient {
 
   private void checkAndApplyTransactions() {
     if (!runningTransactions) return;
+    pollPendingTransactions();
+  }
 
-    asyncExecutor.submit(() -> {
-      try (Connection conn = dataSource.getConnection(); PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectPendingTransactions())) {
+  @Override
+  public void applyPendingTransactions(Collection<UUID> uuids) {
+    if (!runningTransactions) return;
+    List<UUID> cached = cachedOnly(uuids);
+    if (cached.isEmpty()) return;
 
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-          UUID uuid = UUID.fromString(rs.getString("account_uuid"));
-          Account account = DatabaseFactory.ACCOUNTS.getIfPresent(uuid);
-          if (account == null) continue;
-
-          long id = rs.getLong("id");
-          String currencyId = rs.getString("currency_id");
-          Currency currency = Currencies.getCurrency(currencyId);
-
-          BigDecimal amount = rs.getBigDecimal(KEY_AMOUNT);
-          TransactionType type = rs.getString("type") != null ? TransactionType.valueOf(rs.getString("type")) : TransactionType.DEPOSIT;
-
-          switch (type) {
-            case DEPOSIT -> UltraEconomyApi.deposit(uuid, currency.getId(), amount);
-            case WITHDRAW -> UltraEconomyApi.withdraw(uuid, currency.getId(), amount);
-            case SET -> UltraEconomyApi.setBalance(uuid, currency.getId(), amount);
-            default -> {
-              CobbleUtils.LOGGER.warn("Unknown transaction type for transaction ID " + id);
+    try (Connection conn = dataSource.getConnection()) {
+      for (int i = 0; i < cached.size(); i += BATCH_SIZE) {
+        List<UUID> chunk = cached.subList(i, Math.min(i + BATCH_SIZE, cached.size()));
+        List<PendingTransaction> pending = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectPendingTransactions(chunk.size()))) {
+          for (int j = 0; j < chunk.size(); j++) stmt.setString(j + 1, chunk.get(j).toString());
+          ResultSet rs = stmt.executeQuery();
+          while (rs.next()) {
+            String type = rs.getString("type");
+            pending.add(new PendingTransaction(rs.getLong("id"), UUID.fromString(rs.getString("account_uuid")),
+              rs.getString("currency_id"), rs.getBigDecimal(KEY_AMOUNT),
+              type != null ? TransactionType.valueOf(type) : TransactionType.DEPOSIT));
+          }
+        }
+        if (pending.isEmpty()) continue;
+
+        // Cada marca se confirma después de aplicar la fila en memoria, sin otras consultas entre medias
+        conn.setAutoCommit(false);
+        try (PreparedStatement claim = conn.prepareStatement(SQLSentences.markTransactionProcessed())) {
+          for (PendingTransaction transaction : pending) {
+            if (transaction.type() == TransactionType.TRANSFER) {
+              CobbleUtils.LOGGER.warn("Unknown transaction type for transaction ID " + transaction.id());
               continue;
             }
+            // Solo aplica quien consigue marcarla, así nunca se aplica dos veces
+            claim.setLong(1, transaction.id());
+            if (claim.executeUpdate() == 1 && applyPendingTransaction(transaction.uuid(),
+              Currencies.getCurrency(transaction.currencyId()), transaction.amount(), transaction.type())) {
+              conn.commit();
+            } else {
+              conn.rollback();
+            }
           }
-          saveBalanceSafe(uuid, currency, account.getBalance(currency));
-
-          try (PreparedStatement update = conn.prepareStatement(SQLSentences.markTransactionProcessed())) {
-            update.setLong(1, id);
-            update.executeUpdate();
-          }
-
-          DatabaseFactory.ACCOUNTS.put(uuid, account);
+        } catch (SQLException e) {
+          conn.rollback();
+          throw e;
+        } finally {
+          conn.setAutoCommit(true);
         }
-      } catch (SQLException e) {
-        CobbleUtils.LOGGER.error("Error processing transactions");
-        e.printStackTrace();
       }
-    });
+    } catch (SQLException e) {
+      CobbleUtils.LOGGER.error("Error processing transactions");
+      e.printStackTrace();
+    }
+  }
+
+  private record PendingTransaction(long id, UUID uuid, String currencyId, BigDecimal amount, TransactionType type) {
   }
 
   // Métodos privados para inicialización de tablas, índices y columna processed
@@ -448,18 +646,24 @@ public class SQLClient extends DatabaseClient {
         case SQLITE -> """
           CREATE TABLE IF NOT EXISTS accounts (
               uuid TEXT PRIMARY KEY,
-              player_name TEXT NOT NULL
+              player_name TEXT NOT NULL,
+              player_name_lower TEXT
           )
           """;
         case MYSQL, MARIADB, H2 -> """
           CREATE TABLE IF NOT EXISTS accounts (
               uuid VARCHAR(36) PRIMARY KEY,
-              player_name VARCHAR(64) NOT NULL
+              player_name VARCHAR(64) NOT NULL,
+              player_name_lower VARCHAR(64)
           )
           """;
         default -> throw new IllegalArgumentException("Unsupported database type for table creation: " + type);
       };
       stmt.executeUpdate(accountTable);
+      addColumnIfMissing(conn, stmt, "accounts", "player_name_lower",
+        type == DataBaseType.SQLITE ? "TEXT" : "VARCHAR(64)");
+      int backfilled = stmt.executeUpdate(SQLSentences.backfillLowerNames());
+      if (backfilled > 0) CobbleUtils.LOGGER.info("Normalized the name of " + backfilled + " accounts");
 
       // Balances table
       String balanceTable = switch (type) {
@@ -496,6 +700,8 @@ public class SQLClient extends DatabaseClient {
               type TEXT NOT NULL,
               timestamp DATETIME DEFAULT CURRENT_TIMESTAMP,
               processed INTEGER DEFAULT 0,
+              transferred_to_account_uuid TEXT,
+              journal_id TEXT,
               FOREIGN KEY(account_uuid) REFERENCES accounts(uuid) ON DELETE CASCADE
           )
           """;
@@ -508,25 +714,52 @@ public class SQLClient extends DatabaseClient {
               type VARCHAR(10) NOT NULL,
               timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
               processed BOOLEAN DEFAULT FALSE,
+              transferred_to_account_uuid VARCHAR(36),
+              journal_id VARCHAR(24),
               FOREIGN KEY(account_uuid) REFERENCES accounts(uuid) ON DELETE CASCADE
           )
           """;
         default -> throw new IllegalArgumentException("Unsupported database type for table creation: " + type);
       };
       stmt.executeUpdate(transactionTable);
+      addColumnIfMissing(conn, stmt, "transactions", "transferred_to_account_uuid",
+        type == DataBaseType.SQLITE ? "TEXT" : "VARCHAR(36)");
+      addColumnIfMissing(conn, stmt, "transactions", "journal_id",
+        type == DataBaseType.SQLITE ? "TEXT" : "VARCHAR(24)");
     }
   }
 
+  private static String lowerName(String name) {
+    return name == null ? null : name.toLowerCase(Locale.ROOT);
+  }
+
+  // Tablas creadas por versiones anteriores
+  private void addColumnIfMissing(Connection conn, Statement stmt, String table, String column, String definition)
+    throws SQLException {
+    DatabaseMetaData metaData = conn.getMetaData();
+    for (String name : List.of(table, table.toUpperCase(Locale.ROOT))) {
+      try (ResultSet rs = metaData.getColumns(null, null, name, null)) {
+        while (rs.next()) {
+          if (rs.getString("COLUMN_NAME").equalsIgnoreCase(column)) return;
+        }
+      }
+    }
+    stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    CobbleUtils.LOGGER.info("Added column " + column + " to " + table);
+  }
+
 
   private void createIndexes() {
     asyncExecutor.submit(() -> {
       try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
         stmt.executeUpdate("CREATE INDEX if NOT EXISTS idx_balances_currency_amount ON balances(currency_id, amount DESC)");
+        stmt.executeUpdate("CREATE INDEX if NOT EXISTS idx_accounts_player_name_lower ON accounts(player_name_lower)");
         stmt.executeUpdate("CREATE INDEX if NOT EXISTS idx_transactions_account_processed ON transactions(account_uuid, processed)");
         stmt.executeUpdate("CREATE INDEX if NOT EXISTS idx_transactions_account_currency ON transactions(account_uuid, currency_id)");
         stmt.executeUpdate("CREATE INDEX if NOT EXISTS idx_transactions_type_account ON transactions(\"type\", " +
           "account_uuid)");
         stmt.executeUpdate("CREATE INDEX if NOT EXISTS idx_transactions_timestamp ON transactions(\"timestamp\")");
+        stmt.executeUpdate("CREATE INDEX if NOT EXISTS idx_transactions_journal_id ON transactions(journal_id)");
       } catch (SQLException e) {
         e.printStackTrace();
       }
@@ -534,13 +767,43 @@ public class SQLClient extends DatabaseClient {
   }
 
 
-  private void saveBalance(UUID uuid, Currency currency, BigDecimal amount) throws SQLException {
-    try (Connection conn = dataSource.getConnection();
-         PreparedStatement stmt = conn.prepareStatement(SQLSentences.insertBalance())) {
-      stmt.setString(1, uuid.toString());
-      stmt.setString(2, currency.getId());
-      stmt.setBigDecimal(3, amount);
-      stmt.executeUpdate();
+  @Override
+  protected void saveBalancesSync(Map<UUID, Map<String, BigDecimal>> balances, Map<UUID, String> names) {
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      try (PreparedStatement accStmt = conn.prepareStatement(SQLSentences.insertAccountIfMissing());
+           PreparedStatement stmt = conn.prepareStatement(SQLSentences.insertBalance())) {
+        // La cuenta puede no estar guardada todavía (se crea en segundo plano), sin ella falla la clave foránea
+        int accRows = 0;
+        for (UUID uuid : balances.keySet()) {
+          String name = names.get(uuid);
+          if (name == null) name = uuid.toString();
+          accStmt.setString(1, uuid.toString());
+          accStmt.setString(2, name);
+          accStmt.setString(3, lowerName(name));
+          accStmt.addBatch();
+          if (++accRows % BATCH_SIZE == 0) accStmt.executeBatch();
+        }
+        if (accRows % BATCH_SIZE != 0) accStmt.executeBatch();
+        int rows = 0;
+        for (Map.Entry<UUID, Map<String, BigDecimal>> account : balances.entrySet()) {
+          String uuid = account.getKey().toString();
+          for (Map.Entry<String, BigDecimal> entry : account.getValue().entrySet()) {
+            stmt.setString(1, uuid);
+            stmt.setString(2, entry.getKey());
+            stmt.setBigDecimal(3, entry.getValue());
+            stmt.addBatch();
+            if (++rows % BATCH_SIZE == 0) stmt.executeBatch();
+          }
+        }
+        if (rows % BATCH_SIZE != 0) stmt.executeBatch();
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Error saving " + balances.size() + " dirty accounts", e);
     }
   }
 
@@ -3,10 +3,11 @@ package com.kingpixel.ultraeconomy.database.SQL;
 import com.kingpixel.cobbleutils.Model.DataBaseConfig;
 import com.kingpixel.cobbleutils.Model.DataBaseType;
 import com.kingpixel.ultraeconomy.UltraEconomy;
-import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.metrics.HikariMetricsTracker;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
+import java.util.Collections;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -19,7 +20,7 @@ import java.util.concurrent.Executors;
 public class SQLSentences {
 
   private static DataBaseType getType() {
-    return ((SQLClient) DatabaseFactory.INSTANCE).getDbType();
+    return UltraEconomy.config.getDatabase().getType();
   }
 
   @lombok.Data
@@ -35,6 +36,7 @@ public class SQLSentences {
 
   public static Data configure() throws ClassNotFoundException {
     HikariConfig hikariConfig = new HikariConfig();
+    hikariConfig.setMetricsTrackerFactory(HikariMetricsTracker.FACTORY);
     DataBaseConfig config = UltraEconomy.config.getDatabase();
     ExecutorService service;
     HikariDataSource dataSource;
@@ -65,6 +67,8 @@ public class SQLSentences {
         hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
         hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
         hikariConfig.addDataSourceProperty("useServerPrepStmts", "true");
+        // Sends executeBatch() as multi-row statements instead of one round trip per row
+        hikariConfig.addDataSourceProperty("rewriteBatchedStatements", "true");
 
         dataSource = new HikariDataSource(hikariConfig);
         service = Executors.newFixedThreadPool(4, r -> {
@@ -97,15 +101,29 @@ public class SQLSentences {
   // ========================
   public static String insertAccount() {
     return switch (getType()) {
-      case H2 -> "MERGE INTO accounts (uuid, player_name) KEY (uuid) VALUES (?, ?)";
-      case SQLITE -> "INSERT INTO accounts (uuid, player_name) VALUES (?, ?) " +
-        "ON CONFLICT(uuid) DO UPDATE SET player_name=excluded.player_name";
-      case MYSQL, MARIADB -> "INSERT INTO accounts (uuid, player_name) VALUES (?, ?) " +
-        "ON DUPLICATE KEY UPDATE player_name=VALUES(player_name)";
+      case H2 -> "MERGE INTO accounts (uuid, player_name, player_name_lower) KEY (uuid) VALUES (?, ?, ?)";
+      case SQLITE -> "INSERT INTO accounts (uuid, player_name, player_name_lower) VALUES (?, ?, ?) " +
+        "ON CONFLICT(uuid) DO UPDATE SET player_name=excluded.player_name, player_name_lower=excluded.player_name_lower";
+      case MYSQL, MARIADB -> "INSERT INTO accounts (uuid, player_name, player_name_lower) VALUES (?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE player_name=VALUES(player_name), player_name_lower=VALUES(player_name_lower)";
       default -> throw new IllegalArgumentException("Unsupported DB type for insertAccount: " + getType());
     };
   }
 
+  // Crea la cuenta si no existe sin tocar el nombre guardado
+  public static String insertAccountIfMissing() {
+    return switch (getType()) {
+      case H2 -> "MERGE INTO accounts USING (VALUES (?, ?, ?)) AS s(uuid, player_name, player_name_lower) " +
+        "ON accounts.uuid = s.uuid WHEN NOT MATCHED THEN " +
+        "INSERT (uuid, player_name, player_name_lower) VALUES (s.uuid, s.player_name, s.player_name_lower)";
+      case SQLITE -> "INSERT INTO accounts (uuid, player_name, player_name_lower) VALUES (?, ?, ?) " +
+        "ON CONFLICT(uuid) DO NOTHING";
+      case MYSQL, MARIADB -> "INSERT INTO accounts (uuid, player_name, player_name_lower) VALUES (?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE uuid=uuid";
+      default -> throw new IllegalArgumentException("Unsupported DB type for insertAccountIfMissing: " + getType());
+    };
+  }
+
   // ========================
   // BALANCES
   // ========================
@@ -121,21 +139,57 @@ public class SQLSentences {
     };
   }
 
+  // Retira solo si hay saldo suficiente, la comprobación y el descuento son una única sentencia
+  public static String withdrawBalanceIfEnough() {
+    return "UPDATE balances SET amount = amount - ? WHERE account_uuid=? AND currency_id=? AND amount >= ?";
+    // MySQL, MariaDB y H2 (amount es DECIMAL)
+  }
+
+  // En SQLite amount es TEXT, se compara contra el valor leído (compare-and-set)
+  public static String updateBalanceIfUnchanged() {
+    return "UPDATE balances SET amount=? WHERE account_uuid=? AND currency_id=? AND amount=?";
+  }
+
+  public static String selectBalance() {
+    return "SELECT amount FROM balances WHERE account_uuid=? AND currency_id=?";
+  }
+
   // ========================
   // TRANSACTIONS
   // ========================
   public static String insertTransaction() {
-    return "INSERT INTO transactions (account_uuid, currency_id, amount, type, processed) VALUES (?, ?, ?, ?, ?)";
+    return "INSERT INTO transactions (account_uuid, currency_id, amount, type, processed, transferred_to_account_uuid) " +
+      "VALUES (?, ?, ?, ?, ?, ?)";
+    // Igual en todos los motores
+  }
+
+  public static String insertTransactions(int rows) {
+    StringBuilder sb = new StringBuilder(
+      "INSERT INTO transactions (account_uuid, currency_id, amount, type, processed, transferred_to_account_uuid, " +
+        "journal_id) VALUES ");
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) sb.append(", ");
+      sb.append("(?, ?, ?, ?, ?, ?, ?)");
+    }
+    return sb.toString();
+    // Igual en todos los motores
+  }
+
+  // Usa idx_transactions_journal_id
+  public static String selectJournalIds(int rows) {
+    return "SELECT journal_id FROM transactions WHERE journal_id IN (" + String.join(", ", Collections.nCopies(rows, "?")) + ")";
     // Igual en todos los motores
   }
 
   public static String markTransactionProcessed() {
-    return "UPDATE transactions SET processed=TRUE WHERE id=?";
+    return "UPDATE transactions SET processed=TRUE WHERE id=? AND processed=FALSE";
     // Igual en todos los motores
   }
 
-  public static String selectPendingTransactions() {
-    return "SELECT id, account_uuid, currency_id, amount, type FROM transactions WHERE processed=FALSE";
+  public static String selectPendingTransactions(int accounts) {
+    // Usa idx_transactions_account_processed
+    return "SELECT id, account_uuid, currency_id, amount, type FROM transactions WHERE account_uuid IN ("
+      + String.join(", ", Collections.nCopies(accounts, "?")) + ") AND processed=FALSE ORDER BY id";
     // Igual en todos los motores
   }
 
@@ -146,10 +200,64 @@ public class SQLSentences {
     return "SELECT uuid, player_name FROM accounts WHERE uuid=?";
   }
 
+  // Cuentas de versiones anteriores, sin nombre normalizado
+  public static String backfillLowerNames() {
+    return "UPDATE accounts SET player_name_lower=LOWER(player_name) WHERE player_name_lower IS NULL";
+    // Igual en todos los motores
+  }
+
+  public static String selectAccountNames() {
+    return "SELECT uuid, player_name FROM accounts";
+  }
+
+  // Usa idx_accounts_player_name_lower, el parámetro va en minúsculas
+  public static String selectUUIDByName() {
+    return "SELECT uuid FROM accounts WHERE player_name_lower=? ORDER BY uuid";
+  }
+
   public static String selectBalancesByUUID() {
     return "SELECT currency_id, amount FROM balances WHERE account_uuid=?";
   }
 
+  // Cuenta y balances en una sola consulta, una fila por balance (o una con balance NULL si no tiene)
+  private static final String SELECT_ACCOUNT_WITH_BALANCES = """
+    SELECT a.uuid, a.player_name, b.currency_id, b.amount
+    FROM accounts a
+    LEFT JOIN balances b ON a.uuid=b.account_uuid
+    """;
+
+  public static String selectAccountWithBalancesByUUID() {
+    return SELECT_ACCOUNT_WITH_BALANCES + "WHERE a.uuid=?";
+  }
+
+  // Usa idx_accounts_player_name_lower, el parámetro va en minúsculas
+  public static String selectAccountWithBalancesByName() {
+    return SELECT_ACCOUNT_WITH_BALANCES + "WHERE a.player_name_lower=? ORDER BY a.uuid";
+  }
+
+  public static String selectAccountsWithBalances(int accounts) {
+    return SELECT_ACCOUNT_WITH_BALANCES + "WHERE a.uuid IN ("
+      + String.join(", ", Collections.nCopies(accounts, "?")) + ")";
+  }
+
+  public static String selectAccountsPageWithBalances() {
+    return """
+      SELECT a.uuid, a.player_name, b.currency_id, b.amount
+      FROM (SELECT uuid, player_name FROM accounts ORDER BY uuid LIMIT ? OFFSET ?) a
+      LEFT JOIN balances b ON a.uuid=b.account_uuid
+      ORDER BY a.uuid
+      """;
+  }
+
+  public static String selectAllBalances() {
+    return """
+      SELECT a.uuid, a.player_name, b.amount
+      FROM accounts a
+      JOIN balances b ON a.uuid=b.account_uuid
+      WHERE b.currency_id=?
+      """;
+  }
+
   public static String selectTopBalances() {
     return """
       SELECT a.uuid, a.player_name, b.amount
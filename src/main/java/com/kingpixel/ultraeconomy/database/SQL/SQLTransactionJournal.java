@@ -0,0 +1,92 @@
+package com.kingpixel.ultraeconomy.database.SQL;
+
+import com.kingpixel.ultraeconomy.database.TransactionJournal;
+import com.kingpixel.ultraeconomy.models.JournalConfig;
+import com.kingpixel.ultraeconomy.models.Transaction;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bson.types.ObjectId;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Writes journal batches with multi-row INSERT statements, one connection per batch.
+ * <p>
+ * Every row carries the key the journal gave it in {@code journal_id}, a retry first reads which keys
+ * are already stored and only inserts the rest.
+ */
+public class SQLTransactionJournal extends TransactionJournal {
+  // 7 parameters per row, stays below the 999 host parameters of old SQLite builds
+  private static final int ROWS_PER_STATEMENT = 140;
+  private final HikariDataSource dataSource;
+
+  public SQLTransactionJournal(HikariDataSource dataSource, JournalConfig config) {
+    super("Transaction-Journal-UltraEconomy", config);
+    this.dataSource = dataSource;
+  }
+
+  @Override
+  protected void writeBatch(List<Transaction> batch, boolean retry) throws SQLException {
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        if (retry) batch = missing(conn, batch);
+        for (int from = 0; from < batch.size(); from += ROWS_PER_STATEMENT) {
+          List<Transaction> rows = batch.subList(from, Math.min(from + ROWS_PER_STATEMENT, batch.size()));
+          try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.insertTransactions(rows.size()))) {
+            bind(stmt, rows);
+            stmt.executeUpdate();
+          }
+        }
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      }
+    }
+  }
+
+  // Filas que un intento anterior no llegó a guardar
+  private static List<Transaction> missing(Connection conn, List<Transaction> batch) throws SQLException {
+    Set<String> stored = new HashSet<>();
+    for (int from = 0; from < batch.size(); from += ROWS_PER_STATEMENT) {
+      List<Transaction> rows = batch.subList(from, Math.min(from + ROWS_PER_STATEMENT, batch.size()));
+      try (PreparedStatement stmt = conn.prepareStatement(SQLSentences.selectJournalIds(rows.size()))) {
+        for (int i = 0; i < rows.size(); i++) stmt.setString(i + 1, rows.get(i).getId().toHexString());
+        ResultSet rs = stmt.executeQuery();
+        while (rs.next()) stored.add(rs.getString("journal_id"));
+      }
+    }
+    if (stored.isEmpty()) return batch;
+    List<Transaction> missing = new ArrayList<>(batch.size() - stored.size());
+    for (Transaction transaction : batch) {
+      if (!stored.contains(transaction.getId().toHexString())) missing.add(transaction);
+    }
+    return missing;
+  }
+
+  /**
+   * Bind the rows of {@link SQLSentences#insertTransactions(int)}, rows without key get one
+   */
+  static void bind(PreparedStatement stmt, List<Transaction> rows) throws SQLException {
+    int index = 1;
+    for (Transaction transaction : rows) {
+      if (transaction.getId() == null) transaction.setId(new ObjectId());
+      stmt.setString(index++, transaction.getAccountUUID().toString());
+      stmt.setString(index++, transaction.getCurrency());
+      stmt.setBigDecimal(index++, transaction.getAmount());
+      stmt.setString(index++, transaction.getType().name());
+      stmt.setBoolean(index++, transaction.isProcessed());
+      UUID transferredTo = transaction.getTransferedToAccountUUID();
+      stmt.setString(index++, transferredTo != null ? transferredTo.toString() : null);
+      stmt.setString(index++, transaction.getId().toHexString());
+    }
+  }
+}
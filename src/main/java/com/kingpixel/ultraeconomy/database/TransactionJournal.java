@@ -0,0 +1,374 @@
+package com.kingpixel.ultraeconomy.database;
+
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.models.JournalConfig;
+import com.kingpixel.ultraeconomy.models.Transaction;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded in-memory buffer between the balance operations and the transactions table.
+ * <p>
+ * Callers only append to the ring buffer, a single writer thread drains it and writes the
+ * transactions in batches (group commit) when {@code batchSize} rows are waiting or
+ * {@code flushDelay} has passed since the first row of the batch arrived.
+ * When the buffer is full the caller waits up to {@code offerTimeout} and then writes the
+ * transaction itself, so a slow database slows producers down instead of losing transactions.
+ * With the {@code SHED} policy already applied transactions are dropped instead of waiting.
+ * <p>
+ * A batch that fails is kept in a retry queue and written again before newer rows, with an exponential
+ * backoff between attempts. A retry that fails again is split in halves until the failing row is alone,
+ * so one bad row never holds back the rest. Pending transactions (processed=false) are the only record
+ * of a change to an account that is not loaded, so they are retried until they are written; only an
+ * already applied transaction that fails on its own is dropped. Every row gets its key before the first
+ * attempt, so a retry after a commit with an unknown outcome does not write it twice.
+ * <p>
+ * Once pending transactions are written the optional pending listener receives their accounts,
+ * so this server can apply them without waiting for the poll.
+ */
+public abstract class TransactionJournal {
+  private static final int MAX_ATTEMPTS = 3;
+  private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  private final String name;
+  private final ArrayBlockingQueue<Transaction> buffer;
+  // Filas que fallaron, se escriben antes que las nuevas
+  private final Deque<Transaction> retry = new ConcurrentLinkedDeque<>();
+  private final int batchSize;
+  private final long flushDelayNanos;
+  private final long offerTimeoutMillis;
+  private final JournalConfig.OverflowPolicy overflowPolicy;
+  private Thread writer;
+  private volatile boolean running;
+  private volatile Consumer<Collection<UUID>> pendingListener;
+
+  // Metrics
+  private final AtomicLong appended = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong blockedAppends = new AtomicLong();
+  private final AtomicLong overflowWrites = new AtomicLong();
+  private final AtomicLong shed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile int highWaterMark;
+  private volatile long lastBatchNanos;
+  // Solo los usa el hilo escritor
+  private int retryBatchSize;
+  private long backoffNanos = MIN_BACKOFF_NANOS;
+  private long nextRetryNanos;
+  // El último reintento fallido era una fila pendiente sola, no una caída de la base de datos
+  private boolean isolated;
+
+  protected TransactionJournal(String name, JournalConfig config) {
+    this.name = name;
+    this.buffer = new ArrayBlockingQueue<>(Math.max(config.getCapacity(), 16));
+    this.batchSize = Math.max(config.getBatchSize(), 1);
+    this.retryBatchSize = batchSize;
+    this.nextRetryNanos = System.nanoTime();
+    this.flushDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(config.getFlushDelay().toMillis(), 1));
+    this.offerTimeoutMillis = Math.max(config.getOfferTimeout().toMillis(), 0);
+    this.overflowPolicy = config.getOverflowPolicy() == null ? JournalConfig.OverflowPolicy.BLOCK : config.getOverflowPolicy();
+  }
+
+  /**
+   * Write a batch of transactions to the database, all of them or none.
+   *
+   * @param batch The transactions, never empty, every one with its id
+   * @param retry True if some of the transactions may already be written by a previous attempt
+   *
+   * @throws Exception If the batch could not be written
+   */
+  protected abstract void writeBatch(List<Transaction> batch, boolean retry) throws Exception;
+
+  /**
+   * Set the listener that receives the accounts of every written batch with pending transactions.
+   * It runs on the writer thread, so it must hand the work off to another executor.
+   *
+   * @param pendingListener The listener, or null to disable it
+   */
+  public void setPendingListener(Consumer<Collection<UUID>> pendingListener) {
+    this.pendingListener = pendingListener;
+  }
+
+  public synchronized void start() {
+    if (running) return;
+    running = true;
+    writer = new Thread(this::run, name);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Stop the writer and write everything that is still buffered or waiting for a retry.
+   */
+  public synchronized void close() {
+    if (!running) return;
+    running = false;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // Whatever the writer could not drain in time is written here
+    List<Transaction> rest = new ArrayList<>(retry.size() + buffer.size());
+    Transaction transaction;
+    while ((transaction = retry.pollFirst()) != null) rest.add(transaction);
+    buffer.drainTo(rest);
+    for (int i = 0; i < rest.size(); i += batchSize) {
+      List<Transaction> batch = rest.subList(i, Math.min(i + batchSize, rest.size()));
+      if (write(batch, true)) continue;
+      // Última oportunidad fila a fila, lo que siga fallando solo queda en el log
+      for (Transaction row : batch) {
+        if (!writeAttempts(List.of(row))) {
+          failed.incrementAndGet();
+          CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Could not write transaction on shutdown: " + row);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add a transaction to the journal without touching the database.
+   *
+   * @param transaction The transaction to write
+   */
+  public void append(Transaction transaction) {
+    appended.incrementAndGet();
+    assignId(transaction);
+    if (!running) {
+      writeThrough(transaction);
+      return;
+    }
+    if (!buffer.offer(transaction)) {
+      // Pending transactions still have to be applied, only history can be dropped
+      if (overflowPolicy == JournalConfig.OverflowPolicy.SHED && transaction.isProcessed()) {
+        shed.incrementAndGet();
+        return;
+      }
+      blockedAppends.incrementAndGet();
+      boolean accepted = false;
+      try {
+        accepted = buffer.offer(transaction, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (!accepted) {
+        writeThrough(transaction);
+        return;
+      }
+    }
+    int depth = buffer.size();
+    if (depth > highWaterMark) highWaterMark = depth;
+  }
+
+  /**
+   * Add several transactions at once, the writer groups them into as few batches as possible.
+   *
+   * @param transactions The transactions to write
+   */
+  public void appendAll(Collection<Transaction> transactions) {
+    for (Transaction transaction : transactions) {
+      append(transaction);
+    }
+  }
+
+  // La clave se fija antes del primer intento, así un reintento no duplica la fila
+  private static void assignId(Transaction transaction) {
+    if (transaction.getId() == null) transaction.setId(new ObjectId());
+  }
+
+  private void writeThrough(Transaction transaction) {
+    overflowWrites.incrementAndGet();
+    // Un solo intento en el hilo del llamante, si falla la reintenta el escritor
+    if (!write(List.of(transaction), false)) retry.addLast(transaction);
+  }
+
+  private void run() {
+    List<Transaction> batch = new ArrayList<>(batchSize);
+    while (running || !buffer.isEmpty()) {
+      boolean retrying = !retry.isEmpty() && System.nanoTime() - nextRetryNanos >= 0;
+      try {
+        if (retrying) {
+          Transaction next;
+          while (batch.size() < retryBatchSize && (next = retry.pollFirst()) != null) batch.add(next);
+        } else {
+          fill(batch);
+        }
+        if (batch.isEmpty()) continue;
+        if (write(batch, retrying)) {
+          onSuccess(retrying);
+        } else {
+          onFailure(batch, retrying);
+          batch.clear();
+          // Una tanda nueva que falla indica que la base de datos no responde
+          if (!retrying) pause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (!batch.isEmpty() && !write(batch, retrying)) batch.forEach(retry::addLast);
+        return;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void fill(List<Transaction> batch) throws InterruptedException {
+    long wait = flushDelayNanos;
+    // No se espera más allá del próximo reintento
+    if (!retry.isEmpty()) wait = Math.max(Math.min(wait, nextRetryNanos - System.nanoTime()), 0);
+    Transaction first = buffer.poll(wait, TimeUnit.NANOSECONDS);
+    if (first == null) return;
+    batch.add(first);
+    buffer.drainTo(batch, batchSize - batch.size());
+    long deadline = System.nanoTime() + flushDelayNanos;
+    while (batch.size() < batchSize && running) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) break;
+      Transaction next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) break;
+      batch.add(next);
+      buffer.drainTo(batch, batchSize - batch.size());
+    }
+  }
+
+  private void onSuccess(boolean retrying) {
+    if (retrying || retry.isEmpty()) {
+      backoffNanos = MIN_BACKOFF_NANOS;
+      retryBatchSize = batchSize;
+      isolated = false;
+    }
+    // La base de datos vuelve a responder, las filas atrasadas van en la siguiente vuelta
+    if (!isolated) nextRetryNanos = System.nanoTime();
+  }
+
+  private void onFailure(List<Transaction> batch, boolean retrying) {
+    isolated = false;
+    if (!retrying) {
+      batch.forEach(retry::addLast);
+    } else if (batch.size() > 1) {
+      // Se parte en mitades hasta aislar la fila que falla
+      retryBatchSize = Math.max(batch.size() / 2, 1);
+      for (int i = batch.size() - 1; i >= 0; i--) retry.addFirst(batch.get(i));
+    } else {
+      Transaction row = batch.get(0);
+      if (row.isProcessed()) {
+        // Solo historial, el saldo ya se aplicó
+        failed.incrementAndGet();
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Could not write transaction, dropping it: " + row);
+      } else {
+        // Al final de la cola para que no bloquee a las demás
+        retry.addLast(row);
+        isolated = true;
+      }
+    }
+    nextRetryNanos = System.nanoTime() + backoffNanos;
+    backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+  }
+
+  // Espera al siguiente reintento sin retrasar el cierre
+  private void pause() throws InterruptedException {
+    long remaining;
+    while (running && (remaining = nextRetryNanos - System.nanoTime()) > 0) {
+      TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+  }
+
+  private boolean write(List<Transaction> batch, boolean retrying) {
+    if (batch.isEmpty()) return true;
+    long start = System.nanoTime();
+    try {
+      writeBatch(batch, retrying);
+      lastBatchNanos = System.nanoTime() - start;
+      written.addAndGet(batch.size());
+      batches.incrementAndGet();
+      notifyPending(batch);
+      return true;
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Could not write " + batch.size() + " transactions, they will be retried: "
+        + e.getMessage());
+      return false;
+    }
+  }
+
+  private boolean writeAttempts(List<Transaction> batch) {
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      if (write(batch, true)) return true;
+    }
+    return false;
+  }
+
+  private void notifyPending(List<Transaction> batch) {
+    Consumer<Collection<UUID>> listener = pendingListener;
+    if (listener == null) return;
+    Set<UUID> pending = new HashSet<>();
+    for (Transaction transaction : batch) {
+      if (!transaction.isProcessed()) pending.add(transaction.getAccountUUID());
+    }
+    if (pending.isEmpty()) return;
+    try {
+      listener.accept(pending);
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, "Could not notify pending transactions: " + e.getMessage());
+    }
+  }
+
+  public int getDepth() {
+    return buffer.size();
+  }
+
+  /**
+   * @return Transactions that failed and are waiting to be written again
+   */
+  public int getRetrying() {
+    return retry.size();
+  }
+
+  public int getCapacity() {
+    return buffer.size() + buffer.remainingCapacity();
+  }
+
+  public int getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  public long getAppended() {
+    return appended.get();
+  }
+
+  public long getWritten() {
+    return written.get();
+  }
+
+  public long getBatches() {
+    return batches.get();
+  }
+
+  public long getBlockedAppends() {
+    return blockedAppends.get();
+  }
+
+  public long getOverflowWrites() {
+    return overflowWrites.get();
+  }
+
+  public long getShed() {
+    return shed.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public long getLastBatchNanos() {
+    return lastBatchNanos;
+  }
+}
@@ -0,0 +1,16 @@
+package com.kingpixel.ultraeconomy.database;
+
+/**
+ * Outcome of a balance operation that can be rejected
+ */
+public enum TransactionResult {
+  SUCCESS,
+  INSUFFICIENT_FUNDS,
+  UNKNOWN_ACCOUNT,
+  INVALID_AMOUNT,
+  FAILED;
+
+  public boolean isSuccess() {
+    return this == SUCCESS;
+  }
+}
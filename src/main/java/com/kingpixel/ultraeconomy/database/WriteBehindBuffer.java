@@ -0,0 +1,291 @@
+package com.kingpixel.ultraeconomy.database;
+
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.models.Account;
+import com.kingpixel.ultraeconomy.models.Currency;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which (account, currency) balances changed since the last flush and writes only those
+ * to the database, either every {@code writeBehindInterval} or as soon as {@code writeBehindMaxDirty}
+ * pairs are pending.
+ * <p>
+ * Repeated changes of the same balance are coalesced: the flush always reads the latest value
+ * from the account, so 200 deposits between two flushes cost a single upsert.
+ * <p>
+ * An account can leave the cache before its balances are written (the write-back failed or has not run
+ * yet), so every account read from the database goes through {@link #adopt(Account)}, which puts the
+ * unwritten balances back on top of the stored ones.
+ */
+public class WriteBehindBuffer {
+  private final DatabaseClient client;
+  private final ConcurrentHashMap<UUID, DirtyAccount> dirty = new ConcurrentHashMap<>();
+  // Entradas que se están escribiendo, una carga las ve hasta que el flush termina
+  private final ConcurrentHashMap<UUID, DirtyAccount> inFlight = new ConcurrentHashMap<>();
+  private final AtomicInteger dirtyEntries = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+  // Metrics
+  private final AtomicLong totalFlushes = new AtomicLong();
+  private final AtomicLong totalFlushedEntries = new AtomicLong();
+  private final AtomicLong totalFlushNanos = new AtomicLong();
+  private volatile long lastFlushSize;
+  private volatile long lastFlushNanos;
+
+  private ScheduledFuture<?> task;
+  private int maxDirty;
+
+  private static class DirtyAccount {
+    // La instancia más reciente de la cuenta, puede cambiar si se vuelve a cargar antes del flush
+    private Account account;
+    private final Set<String> currencies = new HashSet<>();
+
+    private DirtyAccount(Account account) {
+      this.account = account;
+    }
+  }
+
+  public WriteBehindBuffer(DatabaseClient client) {
+    this.client = client;
+  }
+
+  public synchronized void start() {
+    if (task != null) task.cancel(false);
+    long interval = Math.max(UltraEconomy.config.getWriteBehindInterval().toMillis(), 100);
+    maxDirty = Math.max(UltraEconomy.config.getWriteBehindMaxDirty(), 1);
+    task = UltraEconomy.ULTRA_ECONOMY_SCHEDULER.scheduleWithFixedDelay(this::flush, interval, interval,
+      TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancel the periodic flush and write everything that is still pending.
+   */
+  public synchronized void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+    flush();
+  }
+
+  /**
+   * Mark a balance of an account as changed.
+   *
+   * @param account  The account that changed
+   * @param currency The currency that changed
+   */
+  public void markDirty(Account account, Currency currency) {
+    if (account == null || currency == null) return;
+    dirty.compute(account.getPlayerUUID(), (uuid, entry) -> {
+      if (entry == null) entry = new DirtyAccount(account);
+      else entry.account = account;
+      if (entry.currencies.add(currency.getId())) dirtyEntries.incrementAndGet();
+      return entry;
+    });
+    if (dirtyEntries.get() >= maxDirty && maxDirty > 0 && flushScheduled.compareAndSet(false, true)) {
+      UltraEconomy.ULTRA_ECONOMY_SCHEDULER.execute(() -> {
+        flushScheduled.set(false);
+        flush();
+      });
+    }
+  }
+
+  /**
+   * Write every pending balance to the database.
+   */
+  public synchronized void flush() {
+    if (dirty.isEmpty()) return;
+    long start = System.nanoTime();
+    Map<UUID, Map<String, BigDecimal>> balances = new HashMap<>();
+    Map<UUID, String> names = new HashMap<>();
+    List<DirtyAccount> taken = new ArrayList<>();
+    // Una transferencia en curso no puede dejar un lado escrito y el otro no
+    int size = Account.readConsistent(() -> collect(balances, names, taken));
+    if (balances.isEmpty()) {
+      taken.forEach(entry -> inFlight.remove(entry.account.getPlayerUUID(), entry));
+      return;
+    }
+
+    try {
+      client.saveBalancesSync(balances, names);
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error flushing " + size + " balances, they will be retried");
+      e.printStackTrace();
+      taken.forEach(this::requeue);
+      return;
+    } finally {
+      taken.forEach(entry -> inFlight.remove(entry.account.getPlayerUUID(), entry));
+    }
+
+    long elapsed = System.nanoTime() - start;
+    lastFlushSize = size;
+    lastFlushNanos = elapsed;
+    totalFlushes.incrementAndGet();
+    totalFlushedEntries.addAndGet(size);
+    totalFlushNanos.addAndGet(elapsed);
+    if (UltraEconomy.config.isDebug()) {
+      CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Flushed " + size + " balances of " + balances.size()
+        + " accounts in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+    }
+  }
+
+  private int collect(Map<UUID, Map<String, BigDecimal>> balances, Map<UUID, String> names,
+                      List<DirtyAccount> taken) {
+    int size = 0;
+    for (UUID uuid : dirty.keySet()) {
+      DirtyAccount entry = take(uuid);
+      if (entry == null) continue;
+      dirtyEntries.addAndGet(-entry.currencies.size());
+      taken.add(entry);
+      Map<String, BigDecimal> values = new HashMap<>();
+      for (String currencyId : entry.currencies) {
+        BigDecimal value = entry.account.getBalance(currencyId);
+        if (value != null) values.put(currencyId, value);
+      }
+      if (values.isEmpty()) continue;
+      balances.put(uuid, values);
+      if (entry.account.getPlayerName() != null) names.put(uuid, entry.account.getPlayerName());
+      size += values.size();
+    }
+    return size;
+  }
+
+  /**
+   * Write the pending balances of a single account, used when it leaves the cache.
+   *
+   * @param uuid The account
+   */
+  public synchronized void flush(UUID uuid) {
+    DirtyAccount entry = take(uuid);
+    if (entry == null) return;
+    try {
+      dirtyEntries.addAndGet(-entry.currencies.size());
+      Map<String, BigDecimal> values = new HashMap<>();
+      for (String currencyId : entry.currencies) {
+        BigDecimal value = entry.account.getBalance(currencyId);
+        if (value != null) values.put(currencyId, value);
+      }
+      if (values.isEmpty()) return;
+      String name = entry.account.getPlayerName();
+      try {
+        client.saveBalancesSync(Map.of(uuid, values), name != null ? Map.of(uuid, name) : Map.of());
+      } catch (Exception e) {
+        requeue(entry);
+        throw e;
+      }
+      totalFlushedEntries.addAndGet(values.size());
+    } finally {
+      inFlight.remove(uuid, entry);
+    }
+  }
+
+  /**
+   * Write the pending balances of an account that left the cache on the scheduler, so the eviction does
+   * not wait for the database.
+   *
+   * @param uuid The account
+   */
+  public void flushLater(UUID uuid) {
+    if (!dirty.containsKey(uuid)) return;
+    UltraEconomy.ULTRA_ECONOMY_SCHEDULER.execute(() -> {
+      try {
+        flush(uuid);
+      } catch (Exception e) {
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error saving evicted account " + uuid + ", it will be retried");
+        e.printStackTrace();
+      }
+    });
+  }
+
+  /**
+   * Put the balances that are not written yet on top of an account read from the database, called before
+   * the account enters the cache. The pending entries now read from this account.
+   *
+   * @param account The account read from the database
+   *
+   * @return The same account
+   */
+  public Account adopt(Account account) {
+    if (account == null) return null;
+    UUID uuid = account.getPlayerUUID();
+    Set<String> applied = new HashSet<>();
+    // Primero dirty y después inFlight: take() publica en inFlight antes de quitar de dirty
+    dirty.computeIfPresent(uuid, (key, entry) -> {
+      // Se copian antes de cambiar la cuenta, un flush de esta entrada ya lee los valores buenos
+      apply(entry, account, applied);
+      entry.account = account;
+      return entry;
+    });
+    DirtyAccount writing = inFlight.get(uuid);
+    if (writing != null && writing.account != account) apply(writing, account, applied);
+    return account;
+  }
+
+  private static void apply(DirtyAccount entry, Account account, Set<String> applied) {
+    for (String currencyId : entry.currencies) {
+      if (!applied.add(currencyId)) continue;
+      BigDecimal value = entry.account.getBalance(currencyId);
+      Currency currency = Currencies.getCurrencyMap().get(currencyId);
+      if (value != null && currency != null) account.setBalance(currency, value);
+    }
+  }
+
+  // Se publica en inFlight antes de quitarla de dirty, así adopt() siempre la ve en uno de los dos.
+  // remove() es atómico con compute(), ningún cambio se cuela entre la lectura y la retirada
+  private DirtyAccount take(UUID uuid) {
+    DirtyAccount entry = dirty.get(uuid);
+    if (entry == null) return null;
+    inFlight.put(uuid, entry);
+    if (dirty.remove(uuid, entry)) return entry;
+    inFlight.remove(uuid, entry);
+    return null;
+  }
+
+  private void requeue(DirtyAccount failed) {
+    dirty.compute(failed.account.getPlayerUUID(), (uuid, entry) -> {
+      // Si ya hay otra entrada su cuenta es más reciente que la del flush que falló
+      if (entry == null) {
+        Account current = DatabaseFactory.ACCOUNTS.getIfPresent(uuid);
+        entry = new DirtyAccount(current != null ? current : failed.account);
+      }
+      for (String currencyId : failed.currencies) {
+        if (entry.currencies.add(currencyId)) dirtyEntries.incrementAndGet();
+      }
+      return entry;
+    });
+  }
+
+  public int getDirtyEntries() {
+    return dirtyEntries.get();
+  }
+
+  public long getLastFlushSize() {
+    return lastFlushSize;
+  }
+
+  public long getLastFlushNanos() {
+    return lastFlushNanos;
+  }
+
+  public long getTotalFlushes() {
+    return totalFlushes.get();
+  }
+
+  public long getTotalFlushedEntries() {
+    return totalFlushedEntries.get();
+  }
+
+  public long getTotalFlushNanos() {
+    return totalFlushNanos.get();
+  }
+}
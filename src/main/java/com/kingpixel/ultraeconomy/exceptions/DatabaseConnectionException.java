@@ -8,7 +8,7 @@ import com.kingpixel.ultraeconomy.config.Currencies;
 public class DatabaseConnectionException extends RuntimeException {
   public DatabaseConnectionException(String currency) {
     super("Invalid currency: " + currency +
-      ". Available currencies: " + String.join(", ", Currencies.CURRENCY_IDS));
+      ". Available currencies: " + String.join(", ", Currencies.getCurrencyIds()));
   }
 }
 
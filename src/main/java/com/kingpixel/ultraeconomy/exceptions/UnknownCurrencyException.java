@@ -8,7 +8,7 @@ import com.kingpixel.ultraeconomy.config.Currencies;
 public class UnknownCurrencyException extends RuntimeException {
   public UnknownCurrencyException(String currency) {
     super("Invalid currency: " + currency +
-      ". Available currencies: " + String.join(", ", Currencies.CURRENCY_IDS));
+      ". Available currencies: " + String.join(", ", Currencies.getCurrencyIds()));
   }
 }
 
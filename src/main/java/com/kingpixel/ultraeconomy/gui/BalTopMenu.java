@@ -9,7 +9,9 @@ import com.kingpixel.cobbleutils.Model.ItemModel;
 import com.kingpixel.cobbleutils.Model.Rectangle;
 import com.kingpixel.cobbleutils.util.AdventureTranslator;
 import com.kingpixel.ultraeconomy.UltraEconomy;
-import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
+import com.kingpixel.ultraeconomy.manager.BalTopCacheManager;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
 import com.kingpixel.ultraeconomy.models.Account;
 import com.kingpixel.ultraeconomy.models.Currency;
 import lombok.Data;
@@ -17,6 +19,7 @@ import net.minecraft.server.network.ServerPlayerEntity;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * @author Carlos Varas Alonso - 27/09/2025 17:06
@@ -45,20 +48,12 @@ public class BalTopMenu {
     UltraEconomy.runAsync(() -> {
       ChestTemplate template = ChestTemplate.builder(rows).build();
 
-      // Obtenemos la lista directamente, ya viene con +1 internamente
-      List<Account> accounts = DatabaseFactory.INSTANCE.getTopBalances(currency, page, playersPerPage);
-
-      // Si la lista es mayor que playersPerPage, hay siguiente página
-      boolean hasNextPage = accounts.size() > playersPerPage;
-
-      // Mostramos solo hasta playersPerPage
-      List<Account> accountsPage = accounts.subList(0, Math.min(playersPerPage, accounts.size()));
-
-      List<GooeyButton> buttons = new ArrayList<>();
-      for (Account account : accountsPage) {
-        buttons.add(account.getButton(currency));
-      }
-      rectangle.apply(template, buttons);
+      // Los botones (incluidas las cabezas) se renderizan una vez por página y locale
+      Locale locale = UltraEconomyApi.getLocale(player);
+      MenuPage menuPage = BalTopCacheManager.get("menu", currency, page, playersPerPage, locale,
+        () -> render(page, currency, locale));
+      rectangle.apply(template, menuPage.buttons());
+      boolean hasNextPage = menuPage.hasNextPage();
 
       // Botón de página anterior
       if (page > 1) {
@@ -83,4 +78,24 @@ public class BalTopMenu {
     });
   }
 
+  private MenuPage render(int page, Currency currency, Locale locale) {
+    // Obtenemos la lista directamente, ya viene con +1 internamente
+    List<Account> accounts = LeaderboardManager.getTopBalances(currency, page, playersPerPage);
+
+    // Si la lista es mayor que playersPerPage, hay siguiente página
+    boolean hasNextPage = accounts.size() > playersPerPage;
+
+    // Mostramos solo hasta playersPerPage
+    List<Account> accountsPage = accounts.subList(0, Math.min(playersPerPage, accounts.size()));
+
+    List<GooeyButton> buttons = new ArrayList<>();
+    for (Account account : accountsPage) {
+      buttons.add(account.getButton(currency, locale));
+    }
+    return new MenuPage(List.copyOf(buttons), hasNextPage);
+  }
+
+  private record MenuPage(List<GooeyButton> buttons, boolean hasNextPage) {
+  }
+
 }
@@ -0,0 +1,109 @@
+package com.kingpixel.ultraeconomy.manager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.models.Currency;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Rendered baltop pages (command text and menu buttons), keyed by view, currency, page and locale.
+ * <p>
+ * A page is rendered once per {@code balTopCacheTtl}; concurrent requests for the same page wait for
+ * that single render. The pages of a currency are dropped as soon as a balance inside the cached
+ * positions changes or the leaderboard is rebuilt. The cached depth of a currency follows the pages that
+ * are still cached, so opening a deep page once does not make every later change invalidate the currency.
+ */
+public class BalTopCacheManager {
+  // Se crea una vez, al recargar se vacía y se cambia la caducidad
+  private static final Cache<PageKey, Object> PAGES = build();
+  // Deepest position cached per currency, changes below it do not touch any cached page
+  private static final Map<String, Integer> DEPTH = new ConcurrentHashMap<>();
+
+  private record PageKey(String view, String currency, int page, int playersPerPage, Locale locale) {
+    private int depth() {
+      // +1 porque la página guarda una cuenta extra para saber si hay siguiente
+      return page * playersPerPage + 1;
+    }
+  }
+
+  private static Cache<PageKey, Object> build() {
+    return Caffeine.newBuilder()
+      .maximumSize(1000)
+      .expireAfterWrite(ttlMillis(), TimeUnit.MILLISECONDS)
+      // Cuando una página caduca o se descarta la profundidad baja a la de las que quedan,
+      // las invalidaciones explícitas ya limpian la profundidad de la moneda de una vez
+      .removalListener((PageKey key, Object value, RemovalCause cause) -> {
+        if (key != null && cause.wasEvicted()) refreshDepth(key.currency());
+      })
+      .build();
+  }
+
+  private static long ttlMillis() {
+    return Math.max(UltraEconomy.config.getBalTopCacheTtl().toMillis(), 0);
+  }
+
+  public static void init() {
+    PAGES.policy().expireAfterWrite().ifPresent(expiry -> expiry.setExpiresAfter(ttlMillis(), TimeUnit.MILLISECONDS));
+    PAGES.invalidateAll();
+    DEPTH.clear();
+  }
+
+  /**
+   * Get a rendered page, rendering it if it is not cached
+   *
+   * @param view           The kind of page, e.g. "command" or "menu"
+   * @param currency       The currency
+   * @param page           The page, starting at 1
+   * @param playersPerPage The players shown per page
+   * @param locale         The locale used to format the balances
+   * @param renderer       Renders the page on a miss
+   * @param <T>            The rendered type
+   *
+   * @return The rendered page
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T get(String view, Currency currency, int page, int playersPerPage, Locale locale,
+                          Supplier<T> renderer) {
+    PageKey pageKey = new PageKey(view, currency.getId(), page, playersPerPage, locale);
+    DEPTH.merge(currency.getId(), pageKey.depth(), Math::max);
+    T rendered = (T) PAGES.get(pageKey, key -> renderer.get());
+    // Otra vez por si refreshDepth se ejecutó entre el merge y el get
+    DEPTH.merge(currency.getId(), pageKey.depth(), Math::max);
+    return rendered;
+  }
+
+  /**
+   * Called when a position of a leaderboard changed
+   *
+   * @param currency The currency
+   * @param rank     The highest position affected
+   */
+  public static void onRankChanged(Currency currency, int rank) {
+    if (rank <= 0) return;
+    Integer depth = DEPTH.get(currency.getId());
+    if (depth != null && rank <= depth) invalidate(currency);
+  }
+
+  private static void refreshDepth(String currencyId) {
+    DEPTH.compute(currencyId, (id, old) -> {
+      int depth = 0;
+      for (PageKey key : PAGES.asMap().keySet()) {
+        if (key.currency().equals(id)) depth = Math.max(depth, key.depth());
+      }
+      return depth == 0 ? null : depth;
+    });
+  }
+
+  public static void invalidate(Currency currency) {
+    // Antes de quitar las páginas, así una página renderizada mientras tanto conserva su profundidad
+    DEPTH.remove(currency.getId());
+    PAGES.asMap().keySet().removeIf(key -> key.currency().equals(currency.getId()));
+  }
+}
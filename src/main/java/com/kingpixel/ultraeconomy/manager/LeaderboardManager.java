@@ -0,0 +1,238 @@
+package com.kingpixel.ultraeconomy.manager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.models.Account;
+import com.kingpixel.ultraeconomy.models.Currency;
+import com.kingpixel.ultraeconomy.models.Leaderboard;
+import com.kingpixel.ultraeconomy.models.LeaderboardEntry;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory leaderboards per currency.
+ * <p>
+ * They are seeded from the database when the mod loads, updated by every balance change of an
+ * {@link Account} and rebuilt every {@code leaderboardReconcileInterval} to pick up changes made by
+ * other servers. Until a currency is seeded the database is queried instead.
+ * <p>
+ * Balance changes only mark the (player, currency) pair as changed; a single thread applies them and
+ * reads the balance of the account at that moment, so writers never wait for the leaderboard lock and
+ * an older value can not overwrite a newer one. Rebuilds run on their own thread and the changes applied
+ * while a rebuild was reading are applied again to the new leaderboard.
+ */
+public class LeaderboardManager {
+  private static final Map<String, Leaderboard> LEADERBOARDS = new ConcurrentHashMap<>();
+  // Cambios pendientes por jugador y moneda, el último sustituye al anterior
+  private static final Map<Key, Change> PENDING = new ConcurrentHashMap<>();
+  // Cambios aplicados mientras se reconstruye una moneda, se repiten sobre la nueva tabla
+  private static final Map<String, Map<Key, Change>> REBUILDING = new ConcurrentHashMap<>();
+  private static final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private static final ExecutorService UPDATER = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+    .setNameFormat("ultra economy-leaderboard-%d")
+    .setDaemon(true)
+    .build()
+  );
+  private static final ScheduledExecutorService RECONCILER = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder()
+      .setNameFormat("ultra economy-leaderboard-reconcile-%d")
+      .setDaemon(true)
+      .build()
+  );
+  private static ScheduledFuture<?> reconcileTask;
+
+  private record Key(UUID uuid, String currencyId) {
+  }
+
+  /**
+   * A pending change, the balance is read from the account when it is applied unless the account is not
+   * cached (changes written straight to the database)
+   */
+  private record Change(UUID uuid, @Nullable Account account, @Nullable String playerName, Currency currency,
+                        @Nullable BigDecimal balance) {
+  }
+
+  public static synchronized void init() {
+    if (reconcileTask != null) reconcileTask.cancel(false);
+    LEADERBOARDS.clear();
+    long interval = Math.max(UltraEconomy.config.getLeaderboardReconcileInterval().toMillis(), 10_000);
+    reconcileTask = RECONCILER.scheduleWithFixedDelay(LeaderboardManager::reconcile, 0,
+      interval, TimeUnit.MILLISECONDS);
+  }
+
+  public static void shutdown() {
+    CobbleUtils.shutdownAndAwait(RECONCILER);
+    CobbleUtils.shutdownAndAwait(UPDATER);
+  }
+
+  /**
+   * Rebuild every leaderboard from the database, cached accounts win over the stored values because
+   * their last changes may not be flushed yet
+   */
+  public static void reconcile() {
+    if (DatabaseFactory.INSTANCE == null) return;
+    for (Currency currency : Currencies.getCurrencies()) {
+      Map<Key, Change> replay = new ConcurrentHashMap<>();
+      REBUILDING.put(currency.getId(), replay);
+      try {
+        long start = System.currentTimeMillis();
+        Leaderboard leaderboard = new Leaderboard();
+        for (LeaderboardEntry entry : DatabaseFactory.INSTANCE.getAllBalances(currency)) {
+          leaderboard.update(entry.playerUUID(), entry.playerName(), entry.balance());
+        }
+        for (Account account : DatabaseFactory.ACCOUNTS.asMap().values()) {
+          leaderboard.update(account.getPlayerUUID(), account.getPlayerName(),
+            account.getBalance(currency));
+        }
+        LEADERBOARDS.put(currency.getId(), leaderboard);
+        BalTopCacheManager.invalidate(currency);
+        if (UltraEconomy.config.isDebug()) {
+          CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Leaderboard of " + currency.getId() + " rebuilt with "
+            + leaderboard.size() + " accounts in " + (System.currentTimeMillis() - start) + "ms");
+        }
+      } catch (Exception e) {
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error rebuilding leaderboard of " + currency.getId());
+        e.printStackTrace();
+      } finally {
+        REBUILDING.remove(currency.getId(), replay);
+        replay.forEach(PENDING::putIfAbsent);
+        scheduleDrain();
+      }
+    }
+  }
+
+  /**
+   * Move an account after one of its balances changed
+   *
+   * @param account  The account
+   * @param currency The currency that changed
+   */
+  public static void update(Account account, Currency currency) {
+    if (account == null || currency == null) return;
+    enqueue(new Change(account.getPlayerUUID(), account, null, currency, null));
+  }
+
+  /**
+   * Move an account after one of its balances changed
+   *
+   * @param uuid       The player
+   * @param playerName The name of the player, null keeps the current one
+   * @param currency   The currency that changed
+   * @param balance    The new balance
+   */
+  public static void update(UUID uuid, String playerName, Currency currency, BigDecimal balance) {
+    if (uuid == null || currency == null || balance == null) return;
+    enqueue(new Change(uuid, null, playerName, currency, balance));
+  }
+
+  private static void enqueue(Change change) {
+    if (!LEADERBOARDS.containsKey(change.currency().getId()) && !REBUILDING.containsKey(change.currency().getId())) {
+      return;
+    }
+    PENDING.put(new Key(change.uuid(), change.currency().getId()), change);
+    scheduleDrain();
+  }
+
+  private static void scheduleDrain() {
+    if (PENDING.isEmpty() || !drainScheduled.compareAndSet(false, true)) return;
+    try {
+      UPDATER.execute(LeaderboardManager::drain);
+    } catch (RejectedExecutionException e) {
+      // Servidor parando
+      drainScheduled.set(false);
+    }
+  }
+
+  private static void drain() {
+    drainScheduled.set(false);
+    for (Key key : PENDING.keySet()) {
+      // Se quita antes de leer el saldo: un cambio posterior vuelve a añadir la clave
+      Change change = PENDING.remove(key);
+      if (change == null) continue;
+      try {
+        apply(key, change);
+      } catch (Exception e) {
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error updating the leaderboard of " + key.currencyId());
+        e.printStackTrace();
+      }
+    }
+    // Lo que llegó durante este recorrido
+    scheduleDrain();
+  }
+
+  private static void apply(Key key, Change change) {
+    Leaderboard leaderboard = LEADERBOARDS.get(key.currencyId());
+    if (leaderboard != null) {
+      Account account = change.account();
+      int affected = account != null
+        ? leaderboard.update(key.uuid(), account.getPlayerName(), account.getBalance(change.currency()))
+        : leaderboard.update(key.uuid(), change.playerName(), change.balance());
+      BalTopCacheManager.onRankChanged(change.currency(), affected);
+    }
+    // Si se está reconstruyendo puede que la nueva tabla ya haya leído el valor anterior
+    Map<Key, Change> replay = REBUILDING.get(key.currencyId());
+    if (replay != null) replay.put(key, change);
+  }
+
+  /**
+   * Refresh every balance and the name of an account, used when the player joins
+   *
+   * @param account The account
+   */
+  public static void track(Account account) {
+    if (account == null) return;
+    for (Currency currency : Currencies.getCurrencies()) {
+      update(account, currency);
+    }
+  }
+
+  /**
+   * Get a page of the leaderboard
+   *
+   * @param currency       The currency
+   * @param page           The page, starting at 1
+   * @param playersPerPage The players per page
+   *
+   * @return Up to playersPerPage + 1 accounts with their rank, the extra one tells there is a next page
+   */
+  public static List<Account> getTopBalances(Currency currency, int page, int playersPerPage) {
+    Leaderboard leaderboard = LEADERBOARDS.get(currency.getId());
+    if (leaderboard == null) return DatabaseFactory.INSTANCE.getTopBalances(currency, page, playersPerPage);
+
+    int offset = Math.max(page - 1, 0) * playersPerPage;
+    List<LeaderboardEntry> entries = leaderboard.getPage(offset, playersPerPage + 1);
+    List<Account> accounts = new ArrayList<>(entries.size());
+    int rank = offset + 1;
+    for (LeaderboardEntry entry : entries) {
+      Account account = new Account(entry.playerUUID(), entry.playerName(),
+        Map.of(currency.getId(), entry.balance()));
+      account.setRank(rank++);
+      accounts.add(account);
+    }
+    return accounts;
+  }
+
+  /**
+   * Get the position of a player in a currency
+   *
+   * @param uuid     The player
+   * @param currency The currency
+   *
+   * @return The position starting at 1, or -1 if unknown
+   */
+  public static int getRank(UUID uuid, Currency currency) {
+    Leaderboard leaderboard = LEADERBOARDS.get(currency.getId());
+    return leaderboard == null ? -1 : leaderboard.getRank(uuid);
+  }
+
+  public static boolean isReady(Currency currency) {
+    return LEADERBOARDS.containsKey(currency.getId());
+  }
+}
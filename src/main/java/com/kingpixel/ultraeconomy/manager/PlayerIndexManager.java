@@ -0,0 +1,102 @@
+package com.kingpixel.ultraeconomy.manager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name to UUID index of every account, so name lookups (pay, web API...) do not query the database.
+ * <p>
+ * It is loaded from the accounts when the mod loads and updated when a player joins or an account
+ * is created. Names are matched ignoring case. A name that is not in the index is looked up once in
+ * the database (another server may have created it), and if it does not exist there either it is
+ * remembered as missing for a short time.
+ */
+public class PlayerIndexManager {
+  private static final Map<String, UUID> UUIDS = new ConcurrentHashMap<>();
+  private static final Map<UUID, String> NAMES = new ConcurrentHashMap<>();
+  // Nombres que no existen, para no consultar la base de datos en cada error de escritura
+  private static final Cache<String, Boolean> MISSING = Caffeine.newBuilder()
+    .maximumSize(1000)
+    .expireAfterWrite(30, TimeUnit.SECONDS)
+    .build();
+
+  public static void init() {
+    synchronized (PlayerIndexManager.class) {
+      UUIDS.clear();
+      NAMES.clear();
+      MISSING.invalidateAll();
+    }
+    UltraEconomy.runAsync(PlayerIndexManager::load);
+  }
+
+  private static void load() {
+    try {
+      long start = System.currentTimeMillis();
+      Map<UUID, String> names = DatabaseFactory.INSTANCE.getPlayerNames();
+      synchronized (PlayerIndexManager.class) {
+        // Los jugadores que entraron mientras se cargaba ya tienen el nombre actual
+        names.forEach((uuid, name) -> {
+          if (!NAMES.containsKey(uuid)) put(uuid, name);
+        });
+      }
+      if (UltraEconomy.config.isDebug()) {
+        CobbleUtils.LOGGER.info(UltraEconomy.MOD_ID, "Player index loaded with " + names.size() + " names in "
+          + (System.currentTimeMillis() - start) + "ms");
+      }
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error loading the player index");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Add or rename a player
+   *
+   * @param uuid The player
+   * @param name The current name of the player
+   */
+  public static synchronized void put(UUID uuid, String name) {
+    if (uuid == null || name == null || name.isEmpty()) return;
+    String key = key(name);
+    String old = NAMES.put(uuid, name);
+    if (old != null && !key(old).equals(key)) UUIDS.remove(key(old), uuid);
+    UUIDS.put(key, uuid);
+    MISSING.invalidate(key);
+  }
+
+  /**
+   * Get the UUID of a player by name, ignoring case
+   *
+   * @param name The name of the player
+   *
+   * @return The UUID, or null if there is no account with that name
+   */
+  public static UUID getUUID(String name) {
+    if (name == null || name.isEmpty()) return null;
+    String key = key(name);
+    UUID uuid = UUIDS.get(key);
+    if (uuid != null) return uuid;
+    if (MISSING.getIfPresent(key) != null) return null;
+
+    uuid = DatabaseFactory.INSTANCE.getUUIDByName(name);
+    if (uuid == null) {
+      MISSING.put(key, Boolean.TRUE);
+      return null;
+    }
+    put(uuid, name);
+    return uuid;
+  }
+
+  private static String key(String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+}
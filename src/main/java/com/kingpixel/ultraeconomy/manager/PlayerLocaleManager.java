@@ -0,0 +1,87 @@
+package com.kingpixel.ultraeconomy.manager;
+
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Locale of every online player, used to format their balances and messages.
+ * <p>
+ * It is bound when the player joins, updated when the client sends new options (see
+ * {@code ServerPlayerEntityMixin}) and dropped when the player leaves, so reading it is a single map
+ * lookup instead of resolving the player and parsing the client language on every message.
+ */
+public class PlayerLocaleManager {
+  // Locale del servidor como fallback
+  public static final Locale DEFAULT_LOCALE = Locale.US;
+  private static final Map<UUID, Locale> LOCALES = new ConcurrentHashMap<>();
+  // Idioma del cliente (en_us) -> Locale, hay pocos idiomas distintos
+  private static final Map<String, Locale> PARSED = new ConcurrentHashMap<>();
+
+  public static void bind(ServerPlayerEntity player) {
+    if (player == null) return;
+    LOCALES.put(player.getUuid(), resolve(player.getClientOptions().language()));
+  }
+
+  /**
+   * Called when a player changes the language, players that did not join yet are ignored
+   *
+   * @param uuid     The player
+   * @param language The language sent by the client
+   */
+  public static void update(UUID uuid, String language) {
+    LOCALES.computeIfPresent(uuid, (key, old) -> resolve(language));
+  }
+
+  public static void unbind(UUID uuid) {
+    LOCALES.remove(uuid);
+  }
+
+  /**
+   * Get the locale of a player
+   *
+   * @param uuid The player
+   *
+   * @return The locale, or the default one if the player is not online
+   */
+  public static Locale getLocale(UUID uuid) {
+    if (uuid == null) return DEFAULT_LOCALE;
+    return LOCALES.getOrDefault(uuid, DEFAULT_LOCALE);
+  }
+
+  /**
+   * Get the locale of a player, players that are not bound (fake players...) are resolved from their options
+   *
+   * @param player The player
+   *
+   * @return The locale, or the default one if the player is null
+   */
+  public static Locale getLocale(ServerPlayerEntity player) {
+    if (player == null) return DEFAULT_LOCALE;
+    Locale locale = LOCALES.get(player.getUuid());
+    return locale != null ? locale : resolve(player.getClientOptions().language());
+  }
+
+  public static Locale resolve(String language) {
+    if (language == null || language.isEmpty()) return DEFAULT_LOCALE;
+    Locale locale = PARSED.get(language);
+    if (locale != null) return locale;
+    try {
+      locale = Locale.forLanguageTag(language.replace('_', '-'));
+    } catch (Exception e) {
+      if (UltraEconomy.config.isDebug()) {
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error parsing player locale: " + language + ", returning server locale");
+        e.printStackTrace();
+      }
+      locale = DEFAULT_LOCALE;
+    }
+    // Los clientes modificados pueden mandar cualquier texto
+    if (PARSED.size() < 256) PARSED.put(language, locale);
+    return locale;
+  }
+}
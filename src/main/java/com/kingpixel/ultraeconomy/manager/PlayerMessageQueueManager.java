@@ -1,59 +1,222 @@
 package com.kingpixel.ultraeconomy.manager;
 
-/**
- *
- * @author Carlos Varas Alonso - 11/10/2025 7:51
- */
-
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.cobbleutils.Model.messages.HiperMessage;
 import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.models.Currency;
+import com.kingpixel.ultraeconomy.placeholders.PlaceHoldersPrefix;
+import net.minecraft.server.MinecraftServer;
 
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
+/**
+ * Balance notifications of the online players, merged and sent from the server thread.
+ * <p>
+ * With {@code queueMessages} every notification is merged with the pending one of the same player,
+ * currency, type and counterpart (200 sales are a single "%amount% from %count% deposits"), and the
+ * pending notifications of every player are sent on the server tick once every
+ * {@code betweenMessagesDelay}. Only players that joined have a queue, so notifications for offline
+ * players are dropped with a single map lookup, and a queue holds at most {@link #MAX_PENDING}
+ * distinct notifications.
+ * <p>
+ * Messages queued by addons with the deprecated {@link #enqueue(UUID, Runnable)} are still run from the
+ * same tick, one per player every {@code betweenMessagesDelay} as before.
+ *
+ * @author Carlos Varas Alonso - 11/10/2025 7:51
+ */
 public class PlayerMessageQueueManager {
+  // Notificaciones distintas por jugador, las nuevas que no caben se descartan
+  public static final int MAX_PENDING = 32;
+  private static final Map<UUID, PlayerQueue> QUEUES = new ConcurrentHashMap<>();
+  /**
+   * @deprecated Messages are sent from the server tick now, nothing runs on this executor. Kept for addons
+   */
+  @Deprecated
+  public static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder()
+      .setNameFormat("ultra economy-messages-%d")
+      .setDaemon(true)
+      .build()
+  );
+  // Solo se usa desde el hilo del servidor
+  private static int ticks;
+
+  public enum NotificationType {
+    DEPOSIT,
+    WITHDRAW,
+    SET_BALANCE,
+    NO_MONEY,
+    PAY_SENT,
+    PAY_RECEIVED
+  }
+
+  private record Key(NotificationType type, Currency currency, @Nullable String player) {
+  }
+
+  private static final class Pending {
+    private BigDecimal amount;
+    private int count;
+
+    private Pending(BigDecimal amount, int count) {
+      this.amount = amount;
+      this.count = count;
+    }
+  }
+
+  private static final class PlayerQueue {
+    private final Map<Key, Pending> pending = new LinkedHashMap<>();
+    // Mensajes de enqueue(UUID, Runnable)
+    private final Queue<Runnable> actions = new ConcurrentLinkedQueue<>();
 
-  private static final ConcurrentHashMap<UUID, Queue<Runnable>> MESSAGE_QUEUES = new ConcurrentHashMap<>();
-  public
-  static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+    private synchronized void add(Key key, BigDecimal amount, int count) {
+      Pending current = pending.get(key);
+      if (current == null) {
+        if (pending.size() >= MAX_PENDING) return;
+        pending.put(key, new Pending(amount, count));
+        return;
+      }
+      // El saldo fijado y la falta de dinero solo muestran el último valor
+      current.amount = switch (key.type()) {
+        case SET_BALANCE, NO_MONEY -> amount;
+        default -> current.amount.add(amount);
+      };
+      current.count = current.count > Integer.MAX_VALUE - count ? Integer.MAX_VALUE : current.count + count;
+    }
 
-  static {
-    // Inicia un scheduler que procesa las colas cada 1 segundo
-    SCHEDULER.scheduleAtFixedRate(PlayerMessageQueueManager::processQueues, 0,
-      UltraEconomy.config.getBetweenMessagesDelay().toMillis(),
-      TimeUnit.MILLISECONDS);
+    private synchronized List<Map.Entry<Key, Pending>> drain() {
+      if (pending.isEmpty()) return List.of();
+      List<Map.Entry<Key, Pending>> drained = new ArrayList<>(pending.entrySet());
+      pending.clear();
+      return drained;
+    }
   }
 
   /**
-   * Añadir un mensaje a la cola de un jugador
+   * Start accepting notifications of a player, called when the player joins
    */
+  public static void subscribe(UUID playerUUID) {
+    QUEUES.putIfAbsent(playerUUID, new PlayerQueue());
+  }
+
+  /**
+   * Drop the pending notifications of a player, called when the player leaves
+   */
+  public static void unsubscribe(UUID playerUUID) {
+    QUEUES.remove(playerUUID);
+  }
+
+  /**
+   * Add a message to the queue of a player, run from the server tick
+   *
+   * @param playerUUID    The player
+   * @param messageAction The action that sends the message
+   *
+   * @deprecated Use {@link #notify(UUID, NotificationType, Currency, BigDecimal, String, int)}, which merges
+   * the notifications of the same kind
+   */
+  @Deprecated
   public static void enqueue(UUID playerUUID, Runnable messageAction) {
-    MESSAGE_QUEUES.computeIfAbsent(playerUUID, id -> new ConcurrentLinkedQueue<>()).add(messageAction);
+    if (playerUUID == null || messageAction == null) return;
+    QUEUES.computeIfAbsent(playerUUID, id -> new PlayerQueue()).actions.add(messageAction);
+  }
+
+  /**
+   * Notify a player of a balance change, queued or sent now depending on {@code queueMessages}
+   *
+   * @param playerUUID The player
+   * @param type       The kind of change
+   * @param currency   The currency
+   * @param amount     The amount of the change, or the new balance for SET_BALANCE
+   * @param player     The other player of a payment, null otherwise
+   * @param count      How many changes are merged in this amount
+   */
+  public static void notify(UUID playerUUID, NotificationType type, Currency currency, BigDecimal amount,
+                            @Nullable String player, int count) {
+    if (playerUUID == null || amount == null || count <= 0) return;
+    Key key = new Key(type, currency, player);
+    if (!UltraEconomy.config.isQueueMessages()) {
+      send(playerUUID, key, amount, count);
+      return;
+    }
+    PlayerQueue queue = QUEUES.get(playerUUID);
+    if (queue != null) queue.add(key, amount, count);
   }
 
   /**
-   * Procesa una pila por jugador (envía un mensaje por ciclo)
+   * Send the pending notifications once every betweenMessagesDelay, runs on the server thread at the end of
+   * every tick
    */
-  private static void processQueues() {
-    for (var entry : MESSAGE_QUEUES.entrySet()) {
+  public static void tick(MinecraftServer server) {
+    long window = Math.max(1, UltraEconomy.config.getBetweenMessagesDelay().toMillis() / 50);
+    if (++ticks < window) return;
+    ticks = 0;
+    for (var entry : QUEUES.entrySet()) {
       UUID playerUUID = entry.getKey();
-      Queue<Runnable> queue = entry.getValue();
-
-      Runnable action = queue.poll();
-      if (action != null) {
-        try {
-          action.run();
-        } catch (Exception e) {
-          if (UltraEconomy.config.isDebug()) {
-            CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error al enviar mensaje en cola: " + e.getMessage());
-          }
-        }
+      PlayerQueue queue = entry.getValue();
+      Runnable action = queue.actions.poll();
+      if (action != null) run(action);
+      List<Map.Entry<Key, Pending>> drained = queue.drain();
+      if (drained.isEmpty() && action == null) continue;
+      if (server.getPlayerManager().getPlayer(playerUUID) == null) {
+        // Los mensajes de enqueue se ejecutan aunque no esté conectado, como antes
+        if (queue.actions.isEmpty()) QUEUES.remove(playerUUID, queue);
+        continue;
       }
-      if (queue.isEmpty()) {
-        MESSAGE_QUEUES.remove(playerUUID);
+      for (var notification : drained) {
+        send(playerUUID, notification.getKey(), notification.getValue().amount, notification.getValue().count);
+      }
+    }
+  }
+
+  private static void run(Runnable action) {
+    try {
+      action.run();
+    } catch (Exception e) {
+      if (UltraEconomy.config.isDebug()) {
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error al enviar mensaje en cola: " + e.getMessage());
+        e.printStackTrace();
       }
     }
   }
-}
 
+  private static void send(UUID playerUUID, Key key, BigDecimal amount, int count) {
+    try {
+      HiperMessage message = message(key.type(), count > 1);
+      String rawMessage = message.getRawMessage()
+        .replace(PlaceHoldersPrefix.PLACEHOLDER_AMOUNT,
+          key.currency().format(amount, PlayerLocaleManager.getLocale(playerUUID)))
+        .replace("%count%", String.valueOf(count));
+      if (key.player() != null) rawMessage = rawMessage.replace("%player%", key.player());
+      message.sendMessage(playerUUID, UltraEconomy.lang.getPrefix(), false, false, null, rawMessage);
+    } catch (Exception e) {
+      if (UltraEconomy.config.isDebug()) {
+        CobbleUtils.LOGGER.error(UltraEconomy.MOD_ID, "Error al enviar mensaje en cola: " + e.getMessage());
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static HiperMessage message(NotificationType type, boolean merged) {
+    var lang = UltraEconomy.lang;
+    return switch (type) {
+      case DEPOSIT -> merged ? lang.getMessageDepositMerged() : lang.getMessageDeposit();
+      case WITHDRAW -> merged ? lang.getMessageWithdrawMerged() : lang.getMessageWithdraw();
+      case SET_BALANCE -> lang.getMessageSetBalance();
+      case NO_MONEY -> lang.getMessageNoMoney();
+      case PAY_SENT -> merged ? lang.getMessagePaySuccessSenderMerged() : lang.getMessagePaySuccessSender();
+      case PAY_RECEIVED -> merged ? lang.getMessagePaySuccessReceiverMerged() : lang.getMessagePaySuccessReceiver();
+    };
+  }
+}
@@ -0,0 +1,143 @@
+package com.kingpixel.ultraeconomy.metrics;
+
+import com.kingpixel.cobbleutils.CobbleUtils;
+import com.kingpixel.ultraeconomy.UltraEconomy;
+import lombok.Getter;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Latency of every {@code DatabaseClient} operation, split by whether it ran on the server thread.
+ * <p>
+ * Calls on the server thread slower than {@code blockingCallThreshold} count as blocking: the caller
+ * is captured, the last ones are kept for the admin command and the web API, and a warning is logged
+ * at most once every 30 seconds per operation.
+ */
+public class DatabaseMetrics {
+  private static final int MAX_BLOCKING_CALLS = 50;
+  private static final long WARNING_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+  private static final Map<String, OperationMetrics> OPERATIONS = new ConcurrentHashMap<>();
+  private static final Deque<BlockingCall> BLOCKING_CALLS = new ConcurrentLinkedDeque<>();
+  private static final AtomicInteger BLOCKING_CALLS_SIZE = new AtomicInteger();
+  private static final StackWalker WALKER = StackWalker.getInstance();
+
+  /**
+   * A call that stalled the server thread
+   *
+   * @param operation The DatabaseClient method
+   * @param millis    How long it took
+   * @param caller    The first frames outside the database layer
+   * @param timestamp When it happened, epoch milliseconds
+   */
+  public record BlockingCall(String operation, double millis, String caller, long timestamp) {
+  }
+
+  @Getter
+  public static class OperationMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serverThreadLatency = new LatencyHistogram();
+    private final LongAdder blockingCalls = new LongAdder();
+    private volatile long lastWarning;
+
+    public void reset() {
+      latency.reset();
+      serverThreadLatency.reset();
+      blockingCalls.reset();
+    }
+  }
+
+  public static void record(String operation, long nanos) {
+    OperationMetrics metrics = OPERATIONS.computeIfAbsent(operation, key -> new OperationMetrics());
+    metrics.latency.record(nanos);
+    if (!isServerThread()) return;
+    metrics.serverThreadLatency.record(nanos);
+    if (nanos < UltraEconomy.config.getBlockingCallThreshold().toMillis() * 1_000_000) return;
+
+    metrics.blockingCalls.increment();
+    BlockingCall call = new BlockingCall(operation, nanos / 1_000_000.0, findCaller(),
+      System.currentTimeMillis());
+    BLOCKING_CALLS.addFirst(call);
+    if (BLOCKING_CALLS_SIZE.incrementAndGet() > MAX_BLOCKING_CALLS && BLOCKING_CALLS.pollLast() != null) {
+      BLOCKING_CALLS_SIZE.decrementAndGet();
+    }
+    long now = System.currentTimeMillis();
+    if (now - metrics.lastWarning >= WARNING_INTERVAL) {
+      metrics.lastWarning = now;
+      CobbleUtils.LOGGER.warn(UltraEconomy.MOD_ID, String.format(Locale.ROOT,
+        "%s blocked the server thread for %.2fms, called from %s", operation, call.millis(), call.caller()));
+    }
+  }
+
+  public static Map<String, OperationMetrics> getOperations() {
+    return new TreeMap<>(OPERATIONS);
+  }
+
+  /**
+   * @return The last blocking calls, newest first
+   */
+  public static List<BlockingCall> getBlockingCalls() {
+    return new ArrayList<>(BLOCKING_CALLS);
+  }
+
+  public static void reset() {
+    OPERATIONS.values().forEach(OperationMetrics::reset);
+    BLOCKING_CALLS.clear();
+    BLOCKING_CALLS_SIZE.set(0);
+  }
+
+  /**
+   * Snapshot for the web API
+   */
+  public static Map<String, Object> toJson() {
+    Map<String, Object> operations = new LinkedHashMap<>();
+    getOperations().forEach((name, metrics) -> {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("calls", metrics.latency.getCount());
+      json.put("meanMs", metrics.latency.getMeanMillis());
+      json.put("p50Ms", metrics.latency.getPercentileMillis(0.5));
+      json.put("p99Ms", metrics.latency.getPercentileMillis(0.99));
+      json.put("maxMs", metrics.latency.getMaxMillis());
+      json.put("serverThreadCalls", metrics.serverThreadLatency.getCount());
+      json.put("serverThreadP99Ms", metrics.serverThreadLatency.getPercentileMillis(0.99));
+      json.put("blockingCalls", metrics.blockingCalls.sum());
+      operations.put(name, json);
+    });
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("blockingThresholdMs", UltraEconomy.config.getBlockingCallThreshold().toMillis());
+    json.put("operations", operations);
+    List<Map<String, Object>> blockingCalls = new ArrayList<>();
+    for (BlockingCall call : getBlockingCalls()) {
+      Map<String, Object> callJson = new LinkedHashMap<>();
+      callJson.put("operation", call.operation());
+      callJson.put("millis", call.millis());
+      callJson.put("caller", call.caller());
+      callJson.put("timestamp", call.timestamp());
+      blockingCalls.add(callJson);
+    }
+    json.put("blockingCalls", blockingCalls);
+    return json;
+  }
+
+  private static boolean isServerThread() {
+    MinecraftServer server = UltraEconomy.server;
+    return server != null && server.isOnThread();
+  }
+
+  // Primeros frames fuera de la capa de base de datos y de las métricas
+  private static String findCaller() {
+    return WALKER.walk(frames -> frames
+      .filter(frame -> !frame.getClassName().startsWith("com.kingpixel.ultraeconomy.database")
+        && !frame.getClassName().startsWith("com.kingpixel.ultraeconomy.metrics"))
+      .limit(4)
+      .map(frame -> frame.getClassName().substring(frame.getClassName().lastIndexOf('.') + 1)
+        + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+      .collect(Collectors.joining(" <- ")));
+  }
+}
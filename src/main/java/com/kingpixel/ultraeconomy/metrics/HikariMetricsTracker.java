@@ -0,0 +1,31 @@
+package com.kingpixel.ultraeconomy.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the connection pool wait and usage times of HikariCP into {@link MetricsRegistry}
+ */
+public class HikariMetricsTracker implements IMetricsTracker {
+  public static final MetricsTrackerFactory FACTORY = (poolName, poolStats) -> {
+    MetricsRegistry.setPoolStats(poolStats);
+    return new HikariMetricsTracker();
+  };
+
+  @Override
+  public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+    MetricsRegistry.recordPoolAcquire(elapsedAcquiredNanos);
+  }
+
+  @Override
+  public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+    MetricsRegistry.recordPoolUsage(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+  }
+
+  @Override
+  public void recordConnectionTimeout() {
+    MetricsRegistry.recordPoolTimeout();
+  }
+}
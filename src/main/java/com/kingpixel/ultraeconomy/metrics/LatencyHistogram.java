@@ -0,0 +1,121 @@
+package com.kingpixel.ultraeconomy.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in nanoseconds with log-linear buckets, in the style of HdrHistogram:
+ * every power of two from ~1µs to ~68s is split into 4 linear sub-buckets, so any value is known
+ * within 25%. Slower values are only counted as overflow, so they appear in the total and the
+ * {@code +Inf} bucket of the export but never inside a finite bucket.
+ * <p>
+ * Recording is a couple of {@link LongAdder} increments and never allocates.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MIN_EXPONENT = 10;
+  private static final int MAX_EXPONENT = 35;
+  private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+  private final LongAdder[] counts = new LongAdder[BUCKETS];
+  private final LongAdder overflow = new LongAdder();
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+  }
+
+  public void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+    int index = indexOf(nanos);
+    if (index < 0) overflow.increment();
+    else counts[index].increment();
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  private static int indexOf(long nanos) {
+    if (nanos < (1L << MIN_EXPONENT)) return 0;
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent > MAX_EXPONENT) return -1;
+    int sub = (int) ((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    return (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBoundNanos(int bucket) {
+    int exponent = bucket / SUB_BUCKETS + MIN_EXPONENT;
+    int sub = bucket % SUB_BUCKETS;
+    return (1L << exponent) + ((long) (sub + 1) << (exponent - SUB_BUCKET_BITS));
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return Values above the last bucket (~68s)
+   */
+  public long getOverflowCount() {
+    return overflow.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  public double getMeanMillis() {
+    long n = count.sum();
+    return n == 0 ? 0 : totalNanos.sum() / (double) n / 1_000_000;
+  }
+
+  public double getMaxMillis() {
+    return maxNanos.get() / 1_000_000.0;
+  }
+
+  /**
+   * @param quantile Between 0 and 1, e.g. 0.99
+   *
+   * @return The estimated latency in milliseconds
+   */
+  public double getPercentileMillis(double quantile) {
+    long n = count.sum();
+    if (n == 0) return 0;
+    long target = Math.max((long) Math.ceil(n * quantile), 1);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i].sum();
+      if (seen >= target) return Math.min(upperBoundNanos(i), maxNanos.get()) / 1_000_000.0;
+    }
+    return getMaxMillis();
+  }
+
+  /**
+   * Cumulative counts at every power of two, the bucket layout of the Prometheus export
+   *
+   * @return Pairs of {upper bound in nanoseconds, values less than or equal}
+   */
+  public long[][] getPowerOfTwoBuckets() {
+    long[][] buckets = new long[BUCKETS / SUB_BUCKETS][2];
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      cumulative += counts[i].sum();
+      if (i % SUB_BUCKETS == SUB_BUCKETS - 1) {
+        buckets[i / SUB_BUCKETS][0] = upperBoundNanos(i);
+        buckets[i / SUB_BUCKETS][1] = cumulative;
+      }
+    }
+    return buckets;
+  }
+
+  public void reset() {
+    for (LongAdder bucket : counts) bucket.reset();
+    overflow.reset();
+    count.reset();
+    totalNanos.reset();
+    maxNanos.set(0);
+  }
+}
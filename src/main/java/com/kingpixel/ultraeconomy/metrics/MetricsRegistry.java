@@ -0,0 +1,159 @@
+package com.kingpixel.ultraeconomy.metrics;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.database.TransactionJournal;
+import com.kingpixel.ultraeconomy.database.WriteBehindBuffer;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms of the economy operations and the gauges of the storage layer, exported in the
+ * Prometheus text format on {@code /metrics}.
+ */
+public class MetricsRegistry {
+  public static final String DEPOSIT = "deposit";
+  public static final String WITHDRAW = "withdraw";
+  public static final String SET_BALANCE = "set_balance";
+  public static final String TRANSFER = "transfer";
+  public static final String GET_BALANCE = "get_balance";
+
+  private static final String PREFIX = "ultraeconomy_";
+  private static final Map<String, LatencyHistogram> OPERATIONS = new ConcurrentHashMap<>();
+  private static final LatencyHistogram POOL_ACQUIRE = new LatencyHistogram();
+  private static final LatencyHistogram POOL_USAGE = new LatencyHistogram();
+  private static final LongAdder POOL_TIMEOUTS = new LongAdder();
+  private static volatile PoolStats poolStats;
+
+  /**
+   * Record the latency of an economy operation
+   *
+   * @param operation One of the operation constants
+   * @param nanos     The latency, from {@link System#nanoTime()}
+   */
+  public static void record(String operation, long nanos) {
+    OPERATIONS.computeIfAbsent(operation, key -> new LatencyHistogram()).record(nanos);
+  }
+
+  static void recordPoolAcquire(long nanos) {
+    POOL_ACQUIRE.record(nanos);
+  }
+
+  static void recordPoolUsage(long nanos) {
+    POOL_USAGE.record(nanos);
+  }
+
+  static void recordPoolTimeout() {
+    POOL_TIMEOUTS.increment();
+  }
+
+  static void setPoolStats(PoolStats stats) {
+    poolStats = stats;
+  }
+
+  public static void reset() {
+    OPERATIONS.values().forEach(LatencyHistogram::reset);
+    POOL_ACQUIRE.reset();
+    POOL_USAGE.reset();
+    POOL_TIMEOUTS.reset();
+  }
+
+  /**
+   * Write every metric in the Prometheus text exposition format (version 0.0.4)
+   *
+   * @return The body of the /metrics response
+   */
+  public static String toPrometheus() {
+    StringBuilder out = new StringBuilder(16 * 1024);
+
+    header(out, "operation_seconds", "histogram", "Latency of the economy operations of the API");
+    new TreeMap<>(OPERATIONS).forEach((name, histogram) -> histogram(out, "operation_seconds",
+      "operation=\"" + name + "\"", histogram));
+
+    header(out, "database_call_seconds", "histogram", "Latency of every database client call");
+    DatabaseMetrics.getOperations().forEach((name, metrics) -> histogram(out, "database_call_seconds",
+      "operation=\"" + name + "\"", metrics.getLatency()));
+    header(out, "database_blocking_calls_total", "counter", "Database calls that blocked the server thread");
+    DatabaseMetrics.getOperations().forEach((name, metrics) -> sample(out, "database_blocking_calls_total",
+      "operation=\"" + name + "\"", metrics.getBlockingCalls().sum()));
+
+    CacheStats cache = DatabaseFactory.ACCOUNTS.stats();
+    header(out, "account_cache_requests_total", "counter", "Lookups of the account cache");
+    sample(out, "account_cache_requests_total", "result=\"hit\"", cache.hitCount());
+    sample(out, "account_cache_requests_total", "result=\"miss\"", cache.missCount());
+    header(out, "account_cache_size", "gauge", "Accounts in the cache");
+    sample(out, "account_cache_size", null, DatabaseFactory.ACCOUNTS.estimatedSize());
+
+    if (DatabaseFactory.INSTANCE != null) {
+      TransactionJournal journal = DatabaseFactory.INSTANCE.getJournal();
+      if (journal != null) {
+        header(out, "journal_depth", "gauge", "Transactions waiting in the journal buffer");
+        sample(out, "journal_depth", null, journal.getDepth());
+        header(out, "journal_capacity", "gauge", "Capacity of the journal buffer");
+        sample(out, "journal_capacity", null, journal.getCapacity());
+        header(out, "journal_retrying", "gauge", "Transactions that failed and wait to be written again");
+        sample(out, "journal_retrying", null, journal.getRetrying());
+        header(out, "journal_written_total", "counter", "Transactions written by the journal");
+        sample(out, "journal_written_total", null, journal.getWritten());
+        header(out, "journal_failed_total", "counter", "History transactions the journal dropped after failing");
+        sample(out, "journal_failed_total", null, journal.getFailed());
+        header(out, "journal_overflow_writes_total", "counter", "Transactions written by the caller because the buffer was full");
+        sample(out, "journal_overflow_writes_total", null, journal.getOverflowWrites());
+      }
+      WriteBehindBuffer writeBehind = DatabaseFactory.INSTANCE.getWriteBehind();
+      header(out, "write_behind_dirty", "gauge", "Balances waiting for the next write-behind flush");
+      sample(out, "write_behind_dirty", null, writeBehind.getDirtyEntries());
+      header(out, "write_behind_flushed_total", "counter", "Balances written by the write-behind buffer");
+      sample(out, "write_behind_flushed_total", null, writeBehind.getTotalFlushedEntries());
+    }
+
+    PoolStats pool = poolStats;
+    if (pool != null) {
+      header(out, "pool_acquire_seconds", "histogram", "Time waiting for a connection of the pool");
+      histogram(out, "pool_acquire_seconds", null, POOL_ACQUIRE);
+      header(out, "pool_usage_seconds", "histogram", "Time a connection was borrowed");
+      histogram(out, "pool_usage_seconds", null, POOL_USAGE);
+      header(out, "pool_timeouts_total", "counter", "Connection requests that timed out");
+      sample(out, "pool_timeouts_total", null, POOL_TIMEOUTS.sum());
+      header(out, "pool_connections", "gauge", "Connections of the pool by state");
+      sample(out, "pool_connections", "state=\"active\"", pool.getActiveConnections());
+      sample(out, "pool_connections", "state=\"idle\"", pool.getIdleConnections());
+      sample(out, "pool_connections", "state=\"total\"", pool.getTotalConnections());
+      header(out, "pool_pending_threads", "gauge", "Threads waiting for a connection");
+      sample(out, "pool_pending_threads", null, pool.getPendingThreads());
+    }
+    return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, double value) {
+    out.append(PREFIX).append(name);
+    if (labels != null) out.append('{').append(labels).append('}');
+    out.append(' ').append(format(value)).append('\n');
+  }
+
+  private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+    String prefix = labels == null ? "" : labels + ",";
+    for (long[] bucket : histogram.getPowerOfTwoBuckets()) {
+      sample(out, name + "_bucket", prefix + "le=\"" + format(bucket[0] / 1e9) + "\"", bucket[1]);
+    }
+    long count = histogram.getCount();
+    sample(out, name + "_bucket", prefix + "le=\"+Inf\"", count);
+    sample(out, name + "_sum", labels, histogram.getTotalNanos() / 1e9);
+    sample(out, name + "_count", labels, count);
+  }
+
+  private static String format(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+    return String.format(Locale.ROOT, "%.9g", value);
+  }
+}
@@ -0,0 +1,22 @@
+package com.kingpixel.ultraeconomy.mixins;
+
+import com.kingpixel.ultraeconomy.manager.PlayerLocaleManager;
+import net.minecraft.network.packet.c2s.common.SyncedClientOptions;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Keeps the bound locale of the player in sync when the client changes the language
+ */
+@Mixin(ServerPlayerEntity.class)
+public abstract class ServerPlayerEntityMixin {
+
+  @Inject(method = "setClientOptions", at = @At("TAIL"))
+  private void ultraeconomy$setClientOptions(SyncedClientOptions clientOptions, CallbackInfo ci) {
+    ServerPlayerEntity self = (ServerPlayerEntity) (Object) this;
+    PlayerLocaleManager.update(self.getUuid(), clientOptions.language());
+  }
+}
@@ -1,12 +1,22 @@
 package com.kingpixel.ultraeconomy.models;
 
 import ca.landonjw.gooeylibs2.api.button.GooeyButton;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.annotations.JsonAdapter;
 import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.cobbleutils.util.AdventureTranslator;
 import com.kingpixel.cobbleutils.util.PlayerUtils;
 import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.database.TransactionResult;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 import net.minecraft.component.DataComponentTypes;
 import net.minecraft.component.type.LoreComponent;
@@ -14,56 +24,63 @@ import net.minecraft.server.network.ServerPlayerEntity;
 import org.bson.Document;
 import org.bson.types.Decimal128;
 
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 import static com.kingpixel.ultraeconomy.database.MongoDBClient.*;
 
 @Data
 @EqualsAndHashCode
 @ToString
+@JsonAdapter(Account.Serializer.class)
 public class Account {
+  // Compartido por las transferencias, exclusivo para leer varias cuentas a la vez
+  private static final ReentrantReadWriteLock TRANSFER_LOCK = new ReentrantReadWriteLock();
   private long rank;
   private UUID playerUUID;
   private String playerName;
-  private final ConcurrentHashMap<String, BigDecimal> balances;
+  // Balances indexed by Currency#getOrdinal, the array is only replaced when a new currency appears
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private transient volatile BalanceCell[] cells = new BalanceCell[0];
 
   public Account(ServerPlayerEntity player) {
     this.playerUUID = player.getUuid();
     this.playerName = player.getGameProfile().getName();
-    this.balances = defaultBalances();
+    fix();
   }
 
   public Account(UUID playerUUID) {
     ServerPlayerEntity player = CobbleUtils.server.getPlayerManager().getPlayer(playerUUID);
     if (player != null) this.playerName = player.getGameProfile().getName();
     this.playerUUID = playerUUID;
-    this.balances = defaultBalances();
+    fix();
   }
 
   public Account(UUID uuid, Map<String, BigDecimal> balances) {
     ServerPlayerEntity player = CobbleUtils.server.getPlayerManager().getPlayer(uuid);
     if (player != null) this.playerName = player.getGameProfile().getName();
     this.playerUUID = uuid;
-    this.balances = new ConcurrentHashMap<>(balances);
+    putAll(balances);
     fix();
   }
 
   public Account(UUID uuid, String playerName, Map<String, BigDecimal> balances) {
     this.playerUUID = uuid;
     this.playerName = playerName;
-    this.balances = new ConcurrentHashMap<>(balances);
+    putAll(balances);
     fix();
   }
 
   public Account(UUID playerUUID, String playerName) {
     this.playerUUID = playerUUID;
     this.playerName = playerName;
-    this.balances = defaultBalances();
+    fix();
   }
 
   public static Account fromDocument(Document doc) {
@@ -96,9 +113,10 @@ public class Account {
     Document doc = new Document();
     doc.append(FIELD_UUID, playerUUID.toString());
     doc.append(FIELD_PLAYER_NAME, playerName);
+    if (playerName != null) doc.append(FIELD_PLAYER_NAME_LOWER, playerName.toLowerCase(Locale.ROOT));
 
     Document balanceDoc = new Document();
-    for (Map.Entry<String, BigDecimal> entry : balances.entrySet()) {
+    for (Map.Entry<String, BigDecimal> entry : getBalances().entrySet()) {
       balanceDoc.append(entry.getKey(), new Decimal128(entry.getValue()));
     }
     doc.append(FIELD_BALANCES, balanceDoc);
@@ -106,48 +124,202 @@ public class Account {
     return doc;
   }
 
-  public synchronized BigDecimal getBalance(Currency currency) {
-    return balances.getOrDefault(currency.getId(), null);
+  public BigDecimal getBalance(Currency currency) {
+    BalanceCell cell = cell(currency.getOrdinal());
+    return cell == null ? null : cell.get();
+  }
+
+  public BigDecimal getBalance(String currencyId) {
+    BalanceCell cell = cell(Currencies.getOrdinal(currencyId));
+    return cell == null ? null : cell.get();
   }
 
-  public synchronized boolean addBalance(Currency currency, BigDecimal amount) {
-    balances.merge(currency.getId(), amount, BigDecimal::add);
+  /**
+   * Get a copy of every balance of the account
+   *
+   * @return The balances by currency id
+   */
+  public Map<String, BigDecimal> getBalances() {
+    BalanceCell[] current = cells;
+    Map<String, BigDecimal> balances = new HashMap<>();
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] != null) balances.put(Currencies.getCurrencyId(i), current[i].get());
+    }
+    return balances;
+  }
+
+  /**
+   * Number of balances held by the account, used to weigh it in the cache
+   */
+  public int getBalanceCount() {
+    int count = 0;
+    for (BalanceCell cell : cells) {
+      if (cell != null) count++;
+    }
+    return count;
+  }
+
+  public boolean addBalance(Currency currency, BigDecimal amount) {
+    if (!cellOrCreate(currency.getId(), scaleOf(currency), null).add(amount)) return false;
+    LeaderboardManager.update(this, currency);
     return true;
   }
 
-  public synchronized boolean removeBalance(Currency currency, BigDecimal amount) {
-    balances.merge(currency.getId(), amount, BigDecimal::subtract);
+  public boolean removeBalance(Currency currency, BigDecimal amount) {
+    if (!cellOrCreate(currency.getId(), scaleOf(currency), null).add(amount.negate())) return false;
+    LeaderboardManager.update(this, currency);
     return true;
   }
 
-  public synchronized BigDecimal setBalance(Currency currency, BigDecimal amount) {
-    balances.put(currency.getId(), amount);
+  /**
+   * Check and debit a balance in one atomic step, so concurrent withdrawals can not overdraw the account
+   *
+   * @param currency The currency
+   * @param amount   The amount to withdraw
+   *
+   * @return The result of the withdrawal
+   */
+  public TransactionResult tryWithdraw(Currency currency, BigDecimal amount) {
+    if (amount == null || amount.signum() <= 0) return TransactionResult.INVALID_AMOUNT;
+    BalanceCell cell = cell(currency.getOrdinal());
+    if (cell == null || !cell.tryWithdraw(amount)) return TransactionResult.INSUFFICIENT_FUNDS;
+    LeaderboardManager.update(this, currency);
+    return TransactionResult.SUCCESS;
+  }
+
+  /**
+   * Run a read that looks at several accounts at once without seeing half of a transfer: transfers hold
+   * the shared side of the transfer lock and this holds the exclusive one. Reads of a single account do
+   * not need it, they always see the balance before or after a transfer.
+   *
+   * @param reader The read, must be short and must not start transfers
+   * @param <T>    The result type
+   *
+   * @return The result of the read
+   */
+  public static <T> T readConsistent(Supplier<T> reader) {
+    TRANSFER_LOCK.writeLock().lock();
+    try {
+      return reader.get();
+    } finally {
+      TRANSFER_LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Move an amount between two accounts, both legs are applied while holding the locks of both
+   * accounts, always taken in UUID order so two opposite transfers can not deadlock, and the shared side
+   * of the transfer lock, so {@link #readConsistent(Supplier)} never sees one leg without the other
+   *
+   * @param from     The account that pays
+   * @param to       The account that receives
+   * @param currency The currency
+   * @param amount   The amount to move
+   *
+   * @return The result of the transfer, nothing changes unless it is SUCCESS
+   */
+  public static TransactionResult transfer(Account from, Account to, Currency currency, BigDecimal amount) {
+    return transfer(from, to, currency, amount, null);
+  }
+
+  /**
+   * Same as {@link #transfer(Account, Account, Currency, BigDecimal)}
+   *
+   * @param onSuccess Run after both legs while the transfer lock is still held, so a consistent read sees
+   *                  the legs and what it does (e.g. marking both balances dirty) together
+   */
+  public static TransactionResult transfer(Account from, Account to, Currency currency, BigDecimal amount,
+                                           Runnable onSuccess) {
+    if (amount == null || amount.signum() <= 0) return TransactionResult.INVALID_AMOUNT;
+    Account first = from.playerUUID.compareTo(to.playerUUID) <= 0 ? from : to;
+    Account second = first == from ? to : from;
+    TRANSFER_LOCK.readLock().lock();
+    try {
+      synchronized (first) {
+        synchronized (second) {
+          // Las celdas no redondean: lo que sale de una es exactamente lo que entra en la otra
+          BalanceCell source = from.cell(currency.getOrdinal());
+          if (source == null || !source.tryWithdraw(amount)) return TransactionResult.INSUFFICIENT_FUNDS;
+          if (!to.cellOrCreate(currency.getId(), scaleOf(currency), null).add(amount)) {
+            source.add(amount);
+            return TransactionResult.FAILED;
+          }
+        }
+      }
+      if (onSuccess != null) onSuccess.run();
+    } finally {
+      TRANSFER_LOCK.readLock().unlock();
+    }
+    LeaderboardManager.update(from, currency);
+    LeaderboardManager.update(to, currency);
+    return TransactionResult.SUCCESS;
+  }
+
+  /**
+   * Replace a balance
+   */
+  public BigDecimal setBalance(Currency currency, BigDecimal amount) {
+    cellOrCreate(currency.getId(), scaleOf(currency), null).set(amount);
+    LeaderboardManager.update(this, currency);
     return amount;
   }
 
-  public synchronized boolean hasEnoughBalance(Currency currency, BigDecimal amount) {
-    return getBalance(currency).compareTo(amount) >= 0;
+  public boolean hasEnoughBalance(Currency currency, BigDecimal amount) {
+    BalanceCell cell = cell(currency.getOrdinal());
+    return cell == null ? amount.signum() <= 0 : cell.covers(amount);
   }
 
   public void fix() {
-    var map = Currencies.getCurrencyMap();
-    map.forEach((k, v) ->
-      balances.putIfAbsent(v.getId(), v.getDefaultBalance()));
+    for (Currency currency : Currencies.getCurrencies()) {
+      cellOrCreate(currency.getId(), scaleOf(currency), currency.getDefaultBalance());
+    }
     // Remove ilegal currencies
     //List<String> keys = new ArrayList<>();
     //map.forEach((k, v) -> keys.add(v.getId()));
     //balances.keySet().removeIf(key -> !keys.contains(key));
   }
 
-  private ConcurrentHashMap<String, BigDecimal> defaultBalances() {
-    ConcurrentHashMap<String, BigDecimal> defaults = new ConcurrentHashMap<>();
-    Currencies.getCurrencyMap().forEach((k, v) -> defaults.put(v.getId(), v.getDefaultBalance()));
-    return defaults;
+  private void putAll(Map<String, BigDecimal> balances) {
+    balances.forEach((currencyId, value) -> {
+      if (value == null) return;
+      Currency currency = Currencies.getCurrencyMap().get(currencyId);
+      // Monedas que ya no existen: se conservan con la escala del valor guardado
+      int scale = currency != null ? scaleOf(currency) : Math.clamp(value.stripTrailingZeros().scale(), 0, 8);
+      cellOrCreate(currencyId, scale, value).set(value);
+    });
+  }
+
+  private static int scaleOf(Currency currency) {
+    return Math.max(currency.getDecimals(), 0);
+  }
+
+  private BalanceCell cell(int ordinal) {
+    BalanceCell[] current = cells;
+    return ordinal >= 0 && ordinal < current.length ? current[ordinal] : null;
+  }
+
+  private BalanceCell cellOrCreate(String currencyId, int scale, BigDecimal initial) {
+    int ordinal = Currencies.allocateOrdinal(currencyId);
+    BalanceCell cell = cell(ordinal);
+    if (cell != null) return cell;
+    synchronized (this) {
+      cell = cell(ordinal);
+      if (cell != null) return cell;
+      BalanceCell[] grown = Arrays.copyOf(cells, Math.max(cells.length, ordinal + 1));
+      cell = new BalanceCell(scale, initial);
+      grown[ordinal] = cell;
+      cells = grown;
+      return cell;
+    }
   }
 
   public GooeyButton getButton(Currency currency) {
+    return getButton(currency, Locale.US);
+  }
+
+  public GooeyButton getButton(Currency currency, Locale locale) {
     List<String> lore = List.of(
-      "§7Balance: §e" + currency.format(getBalance(currency))
+      "§7Balance: §e" + currency.format(getBalance(currency), locale)
     );
     return GooeyButton.builder()
       .display(PlayerUtils.getHeadItem(playerUUID))
@@ -157,4 +329,19 @@ public class Account {
       ))
       .build();
   }
+
+  /**
+   * Keeps the JSON of the web API: {@code {"rank", "playerUUID", "playerName", "balances": {...}}}
+   */
+  public static class Serializer implements JsonSerializer<Account> {
+    @Override
+    public JsonElement serialize(Account account, Type type, JsonSerializationContext context) {
+      JsonObject json = new JsonObject();
+      json.addProperty("rank", account.getRank());
+      json.add("playerUUID", context.serialize(account.getPlayerUUID()));
+      json.addProperty("playerName", account.getPlayerName());
+      json.add("balances", context.serialize(account.getBalances()));
+      return json;
+    }
+  }
 }
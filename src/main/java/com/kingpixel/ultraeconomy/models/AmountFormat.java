@@ -0,0 +1,133 @@
+package com.kingpixel.ultraeconomy.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes amounts as text without {@link NumberFormat}.
+ * <p>
+ * The amount is rounded once to a fixed-point {@code long} and its digits are written straight into the
+ * caller's {@link StringBuilder}, using the separators of the locale taken once from
+ * {@link DecimalFormatSymbols}. The output is the same as {@code NumberFormat.getNumberInstance(locale)}
+ * with a maximum of fraction digits and no minimum. Amounts that do not fit in a {@code long} at that
+ * scale use {@link DecimalFormat}.
+ */
+final class AmountFormat {
+  private static final Map<Locale, Symbols> SYMBOLS = new ConcurrentHashMap<>();
+  private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(64));
+  private static final ThreadLocal<char[]> DIGITS = ThreadLocal.withInitial(() -> new char[20]);
+
+  private record Symbols(char zeroDigit, char decimalSeparator, char groupingSeparator, char minusSign,
+                         int groupingSize) {
+  }
+
+  private AmountFormat() {
+  }
+
+  /**
+   * A cleared builder of the current thread, the result must be copied before the next call
+   */
+  static StringBuilder builder() {
+    StringBuilder sb = BUILDER.get();
+    if (sb.capacity() > 1024) {
+      sb = new StringBuilder(64);
+      BUILDER.set(sb);
+    }
+    sb.setLength(0);
+    return sb;
+  }
+
+  /**
+   * Append an amount
+   *
+   * @param sb           The builder
+   * @param value        The amount
+   * @param maxFraction  The maximum fraction digits, trailing zeros are not written
+   * @param roundingMode How to drop the digits after maxFraction
+   * @param grouping     Whether to write the grouping separator
+   * @param locale       The locale of the separators
+   */
+  static void append(StringBuilder sb, BigDecimal value, int maxFraction, RoundingMode roundingMode,
+                     boolean grouping, Locale locale) {
+    long units;
+    try {
+      units = value.movePointRight(maxFraction).setScale(0, roundingMode).longValueExact();
+    } catch (ArithmeticException e) {
+      sb.append(legacy(value, maxFraction, roundingMode, grouping, locale));
+      return;
+    }
+    append(sb, units, maxFraction, grouping, locale);
+  }
+
+  /**
+   * Append a fixed-point amount
+   *
+   * @param sb       The builder
+   * @param units    The amount multiplied by 10^scale
+   * @param scale    The digits of units after the decimal separator, trailing zeros are not written
+   * @param grouping Whether to write the grouping separator
+   * @param locale   The locale of the separators
+   */
+  static void append(StringBuilder sb, long units, int scale, boolean grouping, Locale locale) {
+    Symbols symbols = symbols(locale);
+    char[] digits = DIGITS.get();
+    // Se trabaja en negativo para que Long.MIN_VALUE no desborde
+    long rest = units > 0 ? -units : units;
+    int count = 0;
+    do {
+      digits[count++] = (char) -(rest % 10);
+      rest /= 10;
+    } while (rest != 0);
+    // digits está al revés: digits[0] es el último decimal
+
+    int fraction = Math.min(scale, count);
+    int skip = 0;
+    while (skip < fraction && digits[skip] == 0) skip++;
+    boolean hasFraction = skip < fraction;
+    if (units < 0) sb.append(symbols.minusSign());
+
+    int integerDigits = count - scale;
+    if (integerDigits <= 0) {
+      sb.append(symbols.zeroDigit());
+    } else {
+      int size = symbols.groupingSize();
+      for (int i = count - 1; i >= scale; i--) {
+        sb.append((char) (symbols.zeroDigit() + digits[i]));
+        int left = i - scale;
+        if (grouping && size > 0 && left > 0 && left % size == 0) sb.append(symbols.groupingSeparator());
+      }
+    }
+    if (!hasFraction) return;
+
+    sb.append(symbols.decimalSeparator());
+    for (int i = scale - 1; i >= skip; i--) {
+      sb.append(i < count ? (char) (symbols.zeroDigit() + digits[i]) : symbols.zeroDigit());
+    }
+  }
+
+  private static Symbols symbols(Locale locale) {
+    return SYMBOLS.computeIfAbsent(locale, loc -> {
+      DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(loc);
+      NumberFormat format = NumberFormat.getNumberInstance(loc);
+      int groupingSize = format instanceof DecimalFormat decimalFormat ? decimalFormat.getGroupingSize() : 3;
+      return new Symbols(symbols.getZeroDigit(), symbols.getDecimalSeparator(), symbols.getGroupingSeparator(),
+        symbols.getMinusSign(), groupingSize);
+    });
+  }
+
+  private static String legacy(BigDecimal value, int maxFraction, RoundingMode roundingMode, boolean grouping,
+                               Locale locale) {
+    DecimalFormat df = (DecimalFormat) NumberFormat.getNumberInstance(locale);
+    df.setMaximumFractionDigits(maxFraction);
+    df.setMinimumFractionDigits(0);
+    df.setGroupingUsed(grouping);
+    df.setRoundingMode(roundingMode);
+    return df.format(value);
+  }
+}
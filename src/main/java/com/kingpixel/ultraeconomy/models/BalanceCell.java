@@ -0,0 +1,136 @@
+package com.kingpixel.ultraeconomy.models;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single balance stored as a fixed-point {@code long} (the amount multiplied by 10^scale).
+ * <p>
+ * Reads are a plain volatile load and updates a CAS loop, so readers never wait for writers.
+ * The scale is fixed when the cell is created, changing the decimals of a currency later does not
+ * change the meaning of the stored units.
+ * <p>
+ * Amounts are never rounded: a balance that does not fit in a {@code long} at this scale, or that has
+ * more decimals than the scale (old data, another plugin), is kept as a {@link BigDecimal} and updated
+ * under the lock of the cell.
+ */
+final class BalanceCell {
+  // Valor de units cuando el saldo está en big
+  private static final long BIG = Long.MIN_VALUE;
+  private final int scale;
+  private final AtomicLong units = new AtomicLong();
+  private volatile BigDecimal big;
+
+  BalanceCell(int scale, BigDecimal initial) {
+    this.scale = scale;
+    if (initial != null) set(initial);
+  }
+
+  BigDecimal get() {
+    long current = units.get();
+    return current == BIG ? big : BigDecimal.valueOf(current, scale);
+  }
+
+  /**
+   * Add an amount, negative amounts subtract
+   *
+   * @param amount The amount
+   *
+   * @return always true, the balance can not overflow
+   */
+  boolean add(BigDecimal amount) {
+    long delta = toUnits(amount);
+    while (delta != BIG) {
+      long current = units.get();
+      if (current == BIG) break;
+      long next = current + delta;
+      // Desbordamiento del long: se pasa a BigDecimal
+      if (((current ^ next) & (delta ^ next)) < 0 || next == BIG) break;
+      if (units.compareAndSet(current, next)) return true;
+    }
+    return addSlow(amount);
+  }
+
+  /**
+   * Subtract an amount only if the balance covers it, the check and the debit are a single CAS
+   *
+   * @param amount The amount, must be positive
+   *
+   * @return true if the amount was subtracted
+   */
+  boolean tryWithdraw(BigDecimal amount) {
+    long delta = toUnits(amount);
+    while (delta != BIG) {
+      long current = units.get();
+      if (current == BIG) break;
+      if (current < delta) return false;
+      if (units.compareAndSet(current, current - delta)) return true;
+    }
+    return tryWithdrawSlow(amount);
+  }
+
+  /**
+   * Replace the balance
+   *
+   * @param amount The new balance
+   */
+  synchronized void set(BigDecimal amount) {
+    long next = toUnits(amount);
+    if (next != BIG) {
+      units.set(next);
+      return;
+    }
+    big = amount;
+    units.set(BIG);
+  }
+
+  boolean covers(BigDecimal amount) {
+    long delta = toUnits(amount);
+    long current = units.get();
+    if (delta != BIG && current != BIG) return current >= delta;
+    return get().compareTo(amount) >= 0;
+  }
+
+  private synchronized boolean addSlow(BigDecimal amount) {
+    while (true) {
+      long current = units.get();
+      if (store(current, value(current).add(amount))) return true;
+    }
+  }
+
+  private synchronized boolean tryWithdrawSlow(BigDecimal amount) {
+    while (true) {
+      long current = units.get();
+      BigDecimal value = value(current);
+      if (value.compareTo(amount) < 0) return false;
+      if (store(current, value.subtract(amount))) return true;
+    }
+  }
+
+  private BigDecimal value(long current) {
+    return current == BIG ? big : BigDecimal.valueOf(current, scale);
+  }
+
+  // Solo con el lock: big únicamente cambia aquí y en set, el CAS rápido no toca un saldo en big
+  private boolean store(long current, BigDecimal next) {
+    if (current == BIG) {
+      big = next;
+      return true;
+    }
+    long nextUnits = toUnits(next);
+    if (nextUnits != BIG) return units.compareAndSet(current, nextUnits);
+    big = next;
+    return units.compareAndSet(current, BIG);
+  }
+
+  /**
+   * @return The amount in units of this cell, or BIG if it does not fit exactly
+   */
+  private long toUnits(BigDecimal amount) {
+    try {
+      return amount.movePointRight(scale).longValueExact();
+    } catch (ArithmeticException e) {
+      return BIG;
+    }
+  }
+}
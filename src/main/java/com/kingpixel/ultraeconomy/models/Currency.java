@@ -4,21 +4,23 @@ import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.kingpixel.cobbleutils.util.AdventureTranslator;
 import com.kingpixel.ultraeconomy.UltraEconomy;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.PlainTextContent;
 import net.minecraft.text.Text;
 import org.jetbrains.annotations.NotNull;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Optimized Currency model with support for short amounts and cached formatting.
@@ -29,8 +31,11 @@ import java.util.concurrent.TimeUnit;
 
 @Data
 public class Currency {
+  private static final BigDecimal THOUSAND = BigDecimal.valueOf(1000);
 
   private transient String id;
+  // Posición fija de la moneda en los balances de Account, la asigna Currencies
+  private transient int ordinal;
   private boolean primary;
   private boolean transferable;
   private BigDecimal defaultBalance;
@@ -42,15 +47,63 @@ public class Currency {
   private String[] suffixes;
   private List<String> currencyIds;
 
-  // Thread-safe caches for formatted strings and Text objects
+  // Formatted strings and Text objects of every locale, bounded by their length
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
   transient
-  private Map<Locale, Cache<@NotNull BigDecimal, String>> formatCache;
+  private Cache<@NotNull FormatKey, Object> formatCache;
+
+  // Format compilado en init(), no se vuelve a recorrer el texto en cada formateo
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
   transient
-  private Map<Locale, Cache<@NotNull BigDecimal, Text>> formatTextCache;
+  private Segment[] segments;
+
+  private enum Placeholder {
+    SYMBOL("<symbol>"),
+    AMOUNT("<amount>"),
+    SHORT_AMOUNT("<short_amount>"),
+    NAME("<name>");
+
+    private final String tag;
+
+    Placeholder(String tag) {
+      this.tag = tag;
+    }
+  }
+
+  /**
+   * A piece of the format, either literal text or a placeholder (text is null)
+   */
+  private record Segment(String text, Placeholder placeholder) {
+  }
+
+  private enum FormatKind {
+    STRING,
+    TEXT,
+    SIMPLE_AMOUNT_TEXT,
+    AMOUNT_TEXT
+  }
+
+  /**
+   * The value is normalized, 10 and 10.00 share the entry
+   */
+  private record FormatKey(FormatKind kind, Locale locale, BigDecimal value) {
+  }
+
+  // Huecos del template de Text, caracteres de uso privado que el parser deja como texto
+  private static final char AMOUNT_SLOT = '\uE000';
+  private static final char SHORT_AMOUNT_SLOT = '\uE001';
+
+  // Format parseado una vez con los huecos, uno para singular y otro para plural (<name>)
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
   transient
-  private Map<Locale, Cache<@NotNull BigDecimal, Text>> formatSimpleTextCache;
+  private Optional<Text> singularTemplate;
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
   transient
-  private Map<Locale, Cache<@NotNull BigDecimal, Text>> formatAmountTextCache;
+  private Optional<Text> pluralTemplate;
 
   // Symbol is invariant -> cache once
   transient
@@ -118,27 +171,66 @@ public class Currency {
    * Should be called once after constructing the currency object.
    */
   public void init() {
-    formatCache = new ConcurrentHashMap<>();
-    formatTextCache = new ConcurrentHashMap<>();
-    formatSimpleTextCache = new ConcurrentHashMap<>();
-    formatAmountTextCache = new ConcurrentHashMap<>();
+    formatCache = buildCache();
+    segments = compile(format);
+    singularTemplate = null;
+    pluralTemplate = null;
   }
 
-  // ================== FORMAT STRING CACHES ==================
-
-  private Cache<BigDecimal, String> getFormatCacheForLocale(Locale locale) {
-    return formatCache.computeIfAbsent(locale, loc -> Caffeine.newBuilder()
+  private static Cache<@NotNull FormatKey, Object> buildCache() {
+    return Caffeine.newBuilder()
       .expireAfterAccess(1, TimeUnit.MINUTES)
-      .maximumSize(5_000)
-      .build());
+      .maximumWeight(200_000)
+      .weigher((FormatKey key, Object value) -> 32 + (value instanceof Text text ? text.getString() : value.toString()).length())
+      .build();
+  }
+
+  private static Segment[] compile(String format) {
+    List<Segment> compiled = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    next:
+    while (i < format.length()) {
+      if (format.charAt(i) == '<') {
+        for (Placeholder placeholder : Placeholder.values()) {
+          if (!format.startsWith(placeholder.tag, i)) continue;
+          if (!literal.isEmpty()) compiled.add(new Segment(literal.toString(), null));
+          literal.setLength(0);
+          compiled.add(new Segment(null, placeholder));
+          i += placeholder.tag.length();
+          continue next;
+        }
+      }
+      literal.append(format.charAt(i++));
+    }
+    if (!literal.isEmpty()) compiled.add(new Segment(literal.toString(), null));
+    return compiled.toArray(Segment[]::new);
+  }
+
+  private Segment[] getSegments() {
+    Segment[] current = segments;
+    if (current == null) segments = current = compile(format);
+    return current;
+  }
+
+  // ================== FORMAT CACHE ==================
+
+  /**
+   * Get a cached value, the renderer must not use the cache itself
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T cached(FormatKind kind, BigDecimal value, Locale locale, Function<BigDecimal, T> renderer) {
+    Cache<FormatKey, Object> cache = formatCache;
+    if (cache == null) formatCache = cache = buildCache();
+    return (T) cache.get(new FormatKey(kind, locale, value.stripTrailingZeros()), key -> renderer.apply(value));
   }
 
   public String format(BigDecimal value) {
-    return getFormatCacheForLocale(Locale.US).get(value, v -> replace(v, Locale.US));
+    return format(value, Locale.US);
   }
 
   public String format(BigDecimal value, Locale locale) {
-    return getFormatCacheForLocale(locale).get(value, v -> replace(v, locale));
+    return cached(FormatKind.STRING, value, locale, v -> replace(v, locale));
   }
 
   /**
@@ -146,50 +238,47 @@ public class Currency {
    * Supported placeholders: <symbol>, <amount>, <short_amount>, <name>
    */
   private String replace(BigDecimal value, Locale locale) {
-    StringBuilder sb = new StringBuilder();
-    int length = format.length();
-    for (int i = 0; i < length; i++) {
-      char c = format.charAt(i);
-
-      if (c == '<') {
-        if (format.startsWith("<symbol>", i)) {
-          sb.append(this.symbol);
-          i += "<symbol>".length() - 1;
-          continue;
-        }
-        if (format.startsWith("<amount>", i)) {
-          sb.append(formatSimpleAmount(value, locale));
-          i += "<amount>".length() - 1;
-          continue;
-        }
-        if (format.startsWith("<short_amount>", i)) {
-          sb.append(formatAmount(value, locale));
-          i += "<short_amount>".length() - 1;
-          continue;
-        }
-        if (format.startsWith("<name>", i)) {
-          sb.append(value.compareTo(BigDecimal.ONE) == 0 ? singular : plural);
-          i += "<name>".length() - 1;
-          continue;
-        }
+    StringBuilder sb = AmountFormat.builder();
+    for (Segment segment : getSegments()) {
+      if (segment.text() != null) {
+        sb.append(segment.text());
+        continue;
+      }
+      switch (segment.placeholder()) {
+        case SYMBOL -> sb.append(this.symbol);
+        case AMOUNT -> appendSimpleAmount(sb, value, locale);
+        case SHORT_AMOUNT -> appendAmount(sb, value, locale);
+        case NAME -> sb.append(value.compareTo(BigDecimal.ONE) == 0 ? singular : plural);
       }
-      sb.append(c);
     }
     return sb.toString();
   }
 
+  /**
+   * Round an amount to the decimals of the currency, every amount is normalized once before it is moved,
+   * stored or recorded so both legs of an operation use the same value
+   *
+   * @param amount The amount
+   *
+   * @return The amount with exactly the decimals of the currency
+   */
+  public BigDecimal normalize(BigDecimal amount) {
+    return amount == null ? null : amount.setScale(Math.max(decimals, 0), RoundingMode.HALF_EVEN);
+  }
+
   // ================== STRING FORMAT HELPERS ==================
 
   /**
    * Format a number with grouping separators and configured decimals.
    */
   public String formatSimpleAmount(BigDecimal value, Locale locale) {
-    NumberFormat nf = NumberFormat.getNumberInstance(locale);
-    nf.setMaximumFractionDigits(decimals);
-    nf.setMinimumFractionDigits(0);
-    nf.setGroupingUsed(true);
+    StringBuilder sb = AmountFormat.builder();
+    appendSimpleAmount(sb, value, locale);
+    return sb.toString();
+  }
 
-    return nf.format(value);
+  private void appendSimpleAmount(StringBuilder sb, BigDecimal value, Locale locale) {
+    AmountFormat.append(sb, value, Math.max(decimals, 0), RoundingMode.HALF_EVEN, true, locale);
   }
 
   /**
@@ -204,70 +293,157 @@ public class Currency {
    */
   public String formatAmount(BigDecimal value, Locale locale) {
     if (value == null) return "0";
-    BigDecimal thousand = BigDecimal.valueOf(1000);
-    int suffixIndex = 0;
+    StringBuilder sb = AmountFormat.builder();
+    appendAmount(sb, value, locale);
+    return sb.toString();
+  }
 
-    // Reduce the number hasta que sea menor a 1000
-    while (value.compareTo(thousand) >= 0 && suffixIndex < suffixes.length - 1) {
-      value = value.divide(thousand, 2, RoundingMode.DOWN);
-      suffixIndex++;
+  private void appendAmount(StringBuilder sb, BigDecimal value, Locale locale) {
+    int maxFraction = Math.max(decimals, UltraEconomy.config.getAdjustmentShortName());
+    if (value.compareTo(THOUSAND) < 0 || suffixes.length < 2) {
+      AmountFormat.append(sb, value, maxFraction, RoundingMode.DOWN, false, locale);
+      sb.append(suffixes[0]);
+      return;
     }
 
-    // Usar DecimalFormat para controlar el redondeo
-    DecimalFormatSymbols symbols = new DecimalFormatSymbols(locale);
-    DecimalFormat df = new DecimalFormat();
-    df.setDecimalFormatSymbols(symbols);
-    df.setMaximumFractionDigits(Math.max(decimals, UltraEconomy.config.getAdjustmentShortName()));
-    df.setMinimumFractionDigits(0);
-    df.setGroupingUsed(false);
-    df.setRoundingMode(RoundingMode.DOWN); // Trunca siempre hacia abajo
+    long cents;
+    try {
+      cents = value.movePointRight(2).setScale(0, RoundingMode.DOWN).longValueExact();
+    } catch (ArithmeticException e) {
+      // Demasiado grande para un long, se reduce con BigDecimal
+      int suffixIndex = 0;
+      while (value.compareTo(THOUSAND) >= 0 && suffixIndex < suffixes.length - 1) {
+        value = value.divide(THOUSAND, 2, RoundingMode.DOWN);
+        suffixIndex++;
+      }
+      AmountFormat.append(sb, value, maxFraction, RoundingMode.DOWN, false, locale);
+      sb.append(suffixes[suffixIndex]);
+      return;
+    }
 
-    return df.format(value) + suffixes[suffixIndex];
+    // Dividir entre 1000 truncando a 2 decimales en cada paso es lo mismo que truncar una vez los céntimos
+    int suffixIndex = 0;
+    do {
+      cents /= 1000;
+      suffixIndex++;
+    } while (cents >= 100_000 && suffixIndex < suffixes.length - 1);
+    int scale = Math.min(maxFraction, 2);
+    for (int i = scale; i < 2; i++) cents /= 10;
+    AmountFormat.append(sb, cents, scale, false, locale);
+    sb.append(suffixes[suffixIndex]);
   }
 
 
-  // ================== FORMAT TEXT CACHES ==================
+  // ================== FORMAT TEXT ==================
 
   public Text formatText(BigDecimal value) {
     return formatText(value, Locale.US);
   }
 
   public Text formatText(BigDecimal value, Locale locale) {
-    return getFormatTextCacheForLocale(locale).get(value, v -> AdventureTranslator.toNative(format(v, locale)));
+    return cached(FormatKind.TEXT, value, locale, v -> renderText(v, locale));
   }
 
-  private Cache<@NotNull BigDecimal, Text> getFormatTextCacheForLocale(Locale locale) {
-    return formatTextCache.computeIfAbsent(locale, loc -> Caffeine.newBuilder()
-      .expireAfterAccess(1, TimeUnit.MINUTES)
-      .maximumSize(5_000)
-      .build());
+  /**
+   * Splice the amounts into the parsed format, only formats whose amounts can not be spliced are parsed again
+   */
+  private Text renderText(BigDecimal value, Locale locale) {
+    boolean singularName = value.compareTo(BigDecimal.ONE) == 0;
+    Optional<Text> template = singularName ? singularTemplate : pluralTemplate;
+    if (template == null) {
+      template = compileTemplate(singularName);
+      if (singularName) singularTemplate = template;
+      else pluralTemplate = template;
+    }
+    if (template.isEmpty()) return AdventureTranslator.toNative(replace(value, locale));
+    return splice(template.get(), formatSimpleAmount(value, locale), formatAmount(value, locale));
   }
 
-  // ================== SIMPLE AMOUNT TEXT ==================
+  private Optional<Text> compileTemplate(boolean singularName) {
+    StringBuilder sb = new StringBuilder();
+    int slots = 0;
+    for (Segment segment : getSegments()) {
+      if (segment.text() != null) {
+        sb.append(segment.text());
+        continue;
+      }
+      switch (segment.placeholder()) {
+        case SYMBOL -> sb.append(this.symbol);
+        case AMOUNT -> {
+          sb.append(AMOUNT_SLOT);
+          slots++;
+        }
+        case SHORT_AMOUNT -> {
+          // Los sufijos con colores tienen que pasar por el parser
+          if (hasFormatting(suffixes)) return Optional.empty();
+          sb.append(SHORT_AMOUNT_SLOT);
+          slots++;
+        }
+        case NAME -> sb.append(singularName ? singular : plural);
+      }
+    }
+    Text template = AdventureTranslator.toNative(sb.toString());
+    // Un hueco dentro de un hover o similar no se puede sustituir
+    return countSlots(template) == slots ? Optional.of(template) : Optional.empty();
+  }
 
-  public Text formatSimpleAmountText(BigDecimal balance, Locale locale) {
-    return getFormatSimpleTextCacheForLocale(locale)
-      .get(balance, v -> AdventureTranslator.toNative(formatSimpleAmount(v, locale)));
+  private static boolean hasFormatting(String[] values) {
+    for (String value : values) {
+      if (value != null && (value.indexOf('&') >= 0 || value.indexOf('§') >= 0 || value.indexOf('<') >= 0)) return true;
+    }
+    return false;
   }
 
-  private Cache<@NotNull BigDecimal, Text> getFormatSimpleTextCacheForLocale(Locale locale) {
-    return formatSimpleTextCache.computeIfAbsent(locale, loc -> Caffeine.newBuilder()
-      .expireAfterAccess(1, TimeUnit.MINUTES)
-      .maximumSize(5_000)
-      .build());
+  private static int countSlots(Text text) {
+    int slots = 0;
+    if (text.getContent() instanceof PlainTextContent.Literal literal) {
+      for (char c : literal.string().toCharArray()) {
+        if (c == AMOUNT_SLOT || c == SHORT_AMOUNT_SLOT) slots++;
+      }
+    }
+    for (Text sibling : text.getSiblings()) slots += countSlots(sibling);
+    return slots;
   }
 
-  // ================== SHORT AMOUNT TEXT ==================
+  /**
+   * Copy the nodes that hold a slot, the rest of the template is shared
+   */
+  private static Text splice(Text text, String amount, String shortAmount) {
+    List<Text> siblings = text.getSiblings();
+    List<Text> spliced = null;
+    for (int i = 0; i < siblings.size(); i++) {
+      Text sibling = siblings.get(i);
+      Text replaced = splice(sibling, amount, shortAmount);
+      if (replaced != sibling && spliced == null) spliced = new ArrayList<>(siblings.subList(0, i));
+      if (spliced != null) spliced.add(replaced);
+    }
+    String content = null;
+    if (text.getContent() instanceof PlainTextContent.Literal literal
+      && (literal.string().indexOf(AMOUNT_SLOT) >= 0 || literal.string().indexOf(SHORT_AMOUNT_SLOT) >= 0)) {
+      content = literal.string()
+        .replace(String.valueOf(AMOUNT_SLOT), amount)
+        .replace(String.valueOf(SHORT_AMOUNT_SLOT), shortAmount);
+    }
+    if (content == null && spliced == null) return text;
 
-  public Text formatAmountText(BigDecimal balance, Locale locale) {
-    return getFormatAmountTextCacheForLocale(locale)
-      .get(balance, v -> AdventureTranslator.toNative(formatAmount(v, locale)));
+    MutableText copy = content != null ? Text.literal(content) : text.copyContentOnly();
+    copy.setStyle(text.getStyle());
+    for (Text sibling : spliced != null ? spliced : siblings) copy.append(sibling);
+    return copy;
   }
 
-  private Cache<@NotNull BigDecimal, Text> getFormatAmountTextCacheForLocale(Locale locale) {
-    return formatAmountTextCache.computeIfAbsent(locale, loc -> Caffeine.newBuilder()
-      .expireAfterAccess(1, TimeUnit.MINUTES)
-      .maximumSize(5_000)
-      .build());
+  // ================== SIMPLE AMOUNT TEXT ==================
+
+  public Text formatSimpleAmountText(BigDecimal balance, Locale locale) {
+    // Solo dígitos y separadores, no hace falta el parser
+    return cached(FormatKind.SIMPLE_AMOUNT_TEXT, balance, locale, v -> Text.literal(formatSimpleAmount(v, locale)));
+  }
+
+  // ================== SHORT AMOUNT TEXT ==================
+
+  public Text formatAmountText(BigDecimal balance, Locale locale) {
+    return cached(FormatKind.AMOUNT_TEXT, balance, locale, v -> hasFormatting(suffixes)
+      ? AdventureTranslator.toNative(formatAmount(v, locale))
+      : Text.literal(formatAmount(v, locale)));
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,39 @@
+package com.kingpixel.ultraeconomy.models;
+
+import com.kingpixel.cobbleutils.Model.DurationValue;
+import lombok.Data;
+
+/**
+ * Settings of the transaction journal, the buffer that groups transaction inserts.
+ */
+@Data
+public class JournalConfig {
+  // Maximum transactions waiting to be written
+  private int capacity;
+  // Maximum rows written per batch
+  private int batchSize;
+  // Maximum time a transaction waits for its batch to fill
+  private DurationValue flushDelay;
+  // Time a caller waits for free space before writing the transaction itself
+  private DurationValue offerTimeout;
+  // What to do with history entries when the buffer is full
+  private OverflowPolicy overflowPolicy;
+  // MongoDB write concern for journal inserts: ACKNOWLEDGED, UNACKNOWLEDGED, W1, W2, W3, MAJORITY, JOURNALED
+  private String writeConcern;
+
+  public enum OverflowPolicy {
+    // Wait for space, then write the transaction on the caller thread
+    BLOCK,
+    // Drop already applied transactions (history only), pending ones still block
+    SHED
+  }
+
+  public JournalConfig() {
+    capacity = 8192;
+    batchSize = 256;
+    flushDelay = DurationValue.parse("50ms");
+    offerTimeout = DurationValue.parse("100ms");
+    overflowPolicy = OverflowPolicy.BLOCK;
+    writeConcern = "ACKNOWLEDGED";
+  }
+}
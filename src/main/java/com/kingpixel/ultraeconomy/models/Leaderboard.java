@@ -0,0 +1,215 @@
+package com.kingpixel.ultraeconomy.models;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Balances of one currency ordered from highest to lowest.
+ * <p>
+ * Backed by an order-statistic treap (every node knows the size of its subtree), so updates, rank
+ * lookups and page reads are O(log n) instead of sorting the whole balances table.
+ * Ties are ordered by UUID so the order is stable.
+ */
+public class Leaderboard {
+  private static final Comparator<LeaderboardEntry> ORDER = Comparator
+    .comparing(LeaderboardEntry::balance, Comparator.reverseOrder())
+    .thenComparing(LeaderboardEntry::playerUUID);
+
+  private final Map<UUID, LeaderboardEntry> entries = new HashMap<>();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private Node root;
+
+  private static final class Node {
+    private final LeaderboardEntry entry;
+    private final int priority = ThreadLocalRandom.current().nextInt();
+    private int size = 1;
+    private Node left;
+    private Node right;
+
+    private Node(LeaderboardEntry entry) {
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * Insert or move the balance of a player
+   *
+   * @param uuid       The player
+   * @param playerName The name of the player, null keeps the current one
+   * @param balance    The new balance
+   *
+   * @return The highest position affected (the old or the new one), or -1 if nothing changed
+   */
+  public int update(UUID uuid, String playerName, BigDecimal balance) {
+    if (uuid == null || balance == null) return -1;
+    lock.writeLock().lock();
+    try {
+      LeaderboardEntry old = entries.get(uuid);
+      if (playerName == null && old != null) playerName = old.playerName();
+      int affected = Integer.MAX_VALUE;
+      if (old != null) {
+        if (old.balance().compareTo(balance) == 0 && Objects.equals(old.playerName(), playerName)) return -1;
+        affected = rankOf(old);
+        root = delete(root, old);
+      }
+      LeaderboardEntry entry = new LeaderboardEntry(uuid, playerName, balance);
+      entries.put(uuid, entry);
+      root = insert(root, new Node(entry));
+      return Math.min(affected, rankOf(entry));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void remove(UUID uuid) {
+    lock.writeLock().lock();
+    try {
+      LeaderboardEntry old = entries.remove(uuid);
+      if (old != null) root = delete(root, old);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the position of a player
+   *
+   * @param uuid The player
+   *
+   * @return The position starting at 1, or -1 if the player is not in the leaderboard
+   */
+  public int getRank(UUID uuid) {
+    lock.readLock().lock();
+    try {
+      LeaderboardEntry entry = entries.get(uuid);
+      return entry == null ? -1 : rankOf(entry);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get a slice of the leaderboard
+   *
+   * @param offset The entries to skip
+   * @param limit  The maximum entries to return
+   *
+   * @return The entries, from highest to lowest balance
+   */
+  public List<LeaderboardEntry> getPage(int offset, int limit) {
+    List<LeaderboardEntry> page = new ArrayList<>(Math.max(Math.min(limit, 512), 0));
+    if (limit <= 0) return page;
+    lock.readLock().lock();
+    try {
+      collect(root, Math.max(offset, 0), limit, page);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return page;
+  }
+
+  public @Nullable LeaderboardEntry getEntry(UUID uuid) {
+    lock.readLock().lock();
+    try {
+      return entries.get(uuid);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private int rankOf(LeaderboardEntry entry) {
+    int rank = 1;
+    Node node = root;
+    while (node != null) {
+      if (ORDER.compare(entry, node.entry) <= 0) {
+        node = node.left;
+      } else {
+        rank += size(node.left) + 1;
+        node = node.right;
+      }
+    }
+    return rank;
+  }
+
+  private static void collect(Node node, int skip, int limit, List<LeaderboardEntry> out) {
+    if (node == null || out.size() >= limit) return;
+    int leftSize = size(node.left);
+    if (skip < leftSize) collect(node.left, skip, limit, out);
+    if (out.size() >= limit) return;
+    if (skip <= leftSize) out.add(node.entry);
+    collect(node.right, Math.max(skip - leftSize - 1, 0), limit, out);
+  }
+
+  private static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static void recalc(Node node) {
+    node.size = 1 + size(node.left) + size(node.right);
+  }
+
+  private static Node insert(Node node, Node added) {
+    if (node == null) return added;
+    if (added.priority > node.priority) {
+      Node[] parts = split(node, added.entry);
+      added.left = parts[0];
+      added.right = parts[1];
+      recalc(added);
+      return added;
+    }
+    if (ORDER.compare(added.entry, node.entry) < 0) node.left = insert(node.left, added);
+    else node.right = insert(node.right, added);
+    recalc(node);
+    return node;
+  }
+
+  private static Node delete(Node node, LeaderboardEntry entry) {
+    if (node == null) return null;
+    int cmp = ORDER.compare(entry, node.entry);
+    if (cmp == 0) return merge(node.left, node.right);
+    if (cmp < 0) node.left = delete(node.left, entry);
+    else node.right = delete(node.right, entry);
+    recalc(node);
+    return node;
+  }
+
+  // Left gets the entries ordered before the key, right the rest
+  private static Node[] split(Node node, LeaderboardEntry key) {
+    if (node == null) return new Node[]{null, null};
+    if (ORDER.compare(node.entry, key) < 0) {
+      Node[] parts = split(node.right, key);
+      node.right = parts[0];
+      recalc(node);
+      return new Node[]{node, parts[1]};
+    }
+    Node[] parts = split(node.left, key);
+    node.left = parts[1];
+    recalc(node);
+    return new Node[]{parts[0], node};
+  }
+
+  private static Node merge(Node left, Node right) {
+    if (left == null) return right;
+    if (right == null) return left;
+    if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      recalc(left);
+      return left;
+    }
+    right.left = merge(left, right.left);
+    recalc(right);
+    return right;
+  }
+}
@@ -0,0 +1,10 @@
+package com.kingpixel.ultraeconomy.models;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Balance of a player in a leaderboard
+ */
+public record LeaderboardEntry(UUID playerUUID, String playerName, BigDecimal balance) {
+}
@@ -1,27 +1,38 @@
 package com.kingpixel.ultraeconomy.models;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.cobbleutils.api.EconomyApi;
 import com.kingpixel.cobbleutils.command.suggests.CobbleUtilsSuggests;
+import com.kingpixel.cobbleutils.util.Utils;
 import com.kingpixel.ultraeconomy.UltraEconomy;
-import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
+import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.database.DatabaseFactory;
 import com.kingpixel.ultraeconomy.mixins.UserCacheMixin;
 import com.kingpixel.ultraeconomy.models.migration.Migration;
 import lombok.Data;
 
+import java.io.File;
 import java.math.BigDecimal;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Data
 public class MigrationConfig {
+  private static final String CHECKPOINT_FILE = "migration.checkpoint";
   private boolean active;
+  // Players read and written per bulk upsert
+  private int chunkSize;
+  // Threads reading the source economy
+  private int parallelism;
   private List<Migration> migrations;
 
   public MigrationConfig() {
     active = false;
+    chunkSize = 500;
+    parallelism = 4;
     migrations = List.of(
       new Migration("IMPACTOR", "impactor:dollars", "dollars"),
       new Migration("IMPACTOR", "impactor:tokens", "tokens")
@@ -43,46 +54,52 @@ public class MigrationConfig {
       }
       var playerUUIDs = CobbleUtilsSuggests.SUGGESTS_PLAYER_OFFLINE_AND_ONLINE.getPlayerUUIDs();
       var userCache = UltraEconomy.server.getUserCache();
-      Set<UUID> missingUUIDs = new HashSet<>();
-      if (userCache != null) missingUUIDs = ((UserCacheMixin) userCache).getByUuid().keySet();
-      Set<UUID> fusionUUIDs = new HashSet<>();
-      fusionUUIDs.addAll(missingUUIDs);
-      fusionUUIDs.addAll(playerUUIDs);
-
-      for (var uuid : fusionUUIDs) {
-        // Obtener o crear cuenta
-        var account = UltraEconomyApi.getAccount(uuid);
-        if (account == null) {
-          account = new Account(uuid);
-          UltraEconomyApi.saveAccount(account);
-        }
-        UltraEconomyApi.getAccount(account.getPlayerUUID());
-
-        for (Migration migration : migrations) {
-          String currencyId = migration.getMigrationToCurrencyId();
-
-          BigDecimal balance = EconomyApi.getBalance(uuid, migration.toEconomyUse());
+      // Orden estable para poder continuar desde el checkpoint
+      TreeSet<UUID> fusionUUIDs = new TreeSet<>(playerUUIDs);
+      if (userCache != null) fusionUUIDs.addAll(((UserCacheMixin) userCache).getByUuid().keySet());
 
-          if (balance == null) {
-            CobbleUtils.LOGGER.warn("Balance for player " + uuid + " is null, skipping");
-            continue;
-          }
+      File checkpoint = Utils.getAbsolutePath(UltraEconomy.PATH + "/" + CHECKPOINT_FILE);
+      UUID resumeFrom = readCheckpoint(checkpoint);
+      List<UUID> pending = new ArrayList<>(resumeFrom == null ? fusionUUIDs : fusionUUIDs.tailSet(resumeFrom, false));
+      if (resumeFrom != null) {
+        CobbleUtils.LOGGER.info("Resuming migration after " + resumeFrom + ", " + pending.size() + " of "
+          + fusionUUIDs.size() + " players left");
+      }
 
-          if (balance.compareTo(BigDecimal.ZERO) <= 0) {
-            CobbleUtils.LOGGER.info("Balance for player " + uuid + " is zero or negative, skipping");
-            continue;
-          }
+      int size = Math.max(chunkSize, 1);
+      ExecutorService readers = Executors.newFixedThreadPool(Math.max(parallelism, 1), new ThreadFactoryBuilder()
+        .setNameFormat("ultra economy-migration-%d")
+        .setDaemon(true)
+        .build()
+      );
+      int migrated = 0;
+      int balances = 0;
+      try {
+        for (int i = 0; i < pending.size(); i += size) {
+          List<UUID> chunk = pending.subList(i, Math.min(i + size, pending.size()));
+          balances += migrateChunk(chunk, readers);
+          migrated += chunk.size();
+          writeCheckpoint(checkpoint, chunk.getLast());
 
-          UltraEconomyApi.setBalance(uuid, currencyId, balance);
-          CobbleUtils.LOGGER.info("Migrated " + balance + " " + currencyId + " for player " + uuid);
+          long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+          CobbleUtils.LOGGER.info("Migrated " + migrated + "/" + pending.size() + " players (" + balances
+            + " balances, " + (migrated * 1000L / elapsed) + " players/s)");
         }
-
-        UltraEconomyApi.saveAccount(account);
+      } catch (Exception e) {
+        CobbleUtils.LOGGER.error("Migration stopped after " + migrated + " players, it will resume from the checkpoint");
+        e.printStackTrace();
+        UltraEconomy.migrationDone = true;
+        return;
+      } finally {
+        CobbleUtils.shutdownAndAwait(readers);
       }
 
       long end = System.currentTimeMillis();
       CobbleUtils.LOGGER.info("Migration took " + (end - start) + "ms. Migration finished.");
       active = false;
+      if (checkpoint.exists() && !checkpoint.delete()) {
+        CobbleUtils.LOGGER.warn("Could not delete migration checkpoint " + checkpoint.getAbsolutePath());
+      }
 
       try {
         UltraEconomy.config.writeConfig();
@@ -93,4 +110,64 @@ public class MigrationConfig {
       UltraEconomy.migrationDone = true;
     });
   }
+
+  /**
+   * Read the source balances of a chunk in parallel, apply them in memory and write the chunk with one bulk
+   * upsert. No notifications or transactions are generated.
+   *
+   * @param chunk   The players of the chunk
+   * @param readers The executor that reads the source economy
+   *
+   * @return The number of balances migrated
+   */
+  private int migrateChunk(List<UUID> chunk, ExecutorService readers) {
+    List<CompletableFuture<Map<String, BigDecimal>>> reads = chunk.stream()
+      .map(uuid -> CompletableFuture.supplyAsync(() -> readSourceBalances(uuid), readers))
+      .toList();
+    Map<UUID, Account> accounts = DatabaseFactory.INSTANCE.getAccounts(chunk);
+
+    int balances = 0;
+    List<Account> toSave = new ArrayList<>(chunk.size());
+    for (int i = 0; i < chunk.size(); i++) {
+      UUID uuid = chunk.get(i);
+      Account account = accounts.get(uuid);
+      if (account == null) account = new Account(uuid);
+      for (var entry : reads.get(i).join().entrySet()) {
+        account.setBalance(Currencies.getCurrency(entry.getKey()), entry.getValue());
+        balances++;
+      }
+      toSave.add(account);
+    }
+    DatabaseFactory.INSTANCE.saveOrUpdateAccountsSync(toSave);
+    return balances;
+  }
+
+  private Map<String, BigDecimal> readSourceBalances(UUID uuid) {
+    Map<String, BigDecimal> balances = new HashMap<>();
+    for (Migration migration : migrations) {
+      BigDecimal balance = EconomyApi.getBalance(uuid, migration.toEconomyUse());
+      if (balance == null || balance.compareTo(BigDecimal.ZERO) <= 0) continue;
+      balances.put(migration.getMigrationToCurrencyId(), balance);
+    }
+    return balances;
+  }
+
+  private UUID readCheckpoint(File checkpoint) {
+    if (!checkpoint.exists()) return null;
+    try {
+      String data = Utils.readFileSync(checkpoint);
+      return data == null || data.isBlank() ? null : UUID.fromString(data.trim());
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.warn("Invalid migration checkpoint, starting from the beginning");
+      return null;
+    }
+  }
+
+  private void writeCheckpoint(File checkpoint, UUID last) {
+    try {
+      Utils.writeFileSync(checkpoint, last.toString());
+    } catch (Exception e) {
+      CobbleUtils.LOGGER.warn("Could not write migration checkpoint: " + e.getMessage());
+    }
+  }
 }
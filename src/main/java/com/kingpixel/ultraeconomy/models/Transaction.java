@@ -7,6 +7,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.bson.Document;
 import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -30,6 +31,8 @@ public class Transaction {
   private boolean processed;
   private Instant timestamp;
   private String reason;
+  // _id de MongoDB y journal_id en SQL, se fija una vez para que reintentar un insert no duplique la transacción
+  private transient ObjectId id;
 
 
   // MONGODB
@@ -41,6 +44,7 @@ public class Transaction {
   private static final String FIELD_BACKUP_UUID = "uuid";
   private static final String FIELD_REASON = "reason";
   private static final String FIELD_TRANSFERRED_TO_ACCOUNT_UUID = "transferred_to_account_uuid";
+  private static final String FIELD_ID = "_id";
 
 
   public Transaction(UUID accountUUID, String currency, BigDecimal amount, TransactionType type, boolean processed) {
@@ -83,17 +87,20 @@ public class Transaction {
       .timestamp(timestamp)
       .reason(reason)
       .transferedToAccountUUID(transferedToAccountUUID)
+      .id(doc.getObjectId(FIELD_ID))
       .build();
   }
 
   public Document toDocument() {
-    return new Document(FIELD_ACCOUNT_UUID, accountUUID.toString())
+    Document doc = new Document();
+    if (id != null) doc.append(FIELD_ID, id);
+    return doc.append(FIELD_ACCOUNT_UUID, accountUUID.toString())
       .append(FIELD_CURRENCY_ID, currency)
       .append(FIELD_AMOUNT, new Decimal128(amount))
       .append(FIELD_TYPE, type.name())
       .append(FIELD_PROCESSED, processed)
       .append(FIELD_REASON, reason)
       .append(FIELD_TRANSFERRED_TO_ACCOUNT_UUID, transferedToAccountUUID != null ? transferedToAccountUUID.toString() : null)
-      .append("timestamp", Date.from(Instant.now()));
+      .append("timestamp", Date.from(timestamp != null ? timestamp : Instant.now()));
   }
 }
@@ -4,6 +4,7 @@ import com.kingpixel.cobbleutils.CobbleUtils;
 import com.kingpixel.ultraeconomy.UltraEconomy;
 import com.kingpixel.ultraeconomy.api.UltraEconomyApi;
 import com.kingpixel.ultraeconomy.config.Currencies;
+import com.kingpixel.ultraeconomy.manager.LeaderboardManager;
 import com.kingpixel.ultraeconomy.models.Currency;
 import eu.pb4.placeholders.api.PlaceholderResult;
 import eu.pb4.placeholders.api.Placeholders;
@@ -25,6 +26,8 @@ public class PlaceHolders {
       registerAmount();
       // %ultraeconomy:short_amount dollars%
       registerShortAmount();
+      // %ultraeconomy:rank dollars%
+      registerRank();
     } catch (Exception | NoClassDefFoundError ignored) {
       CobbleUtils.LOGGER.warn("Placeholders API not found, skipping placeholders registration.");
     }
@@ -102,4 +105,21 @@ public class PlaceHolders {
       }
     );
   }
+
+  private static void registerRank() {
+    Placeholders.register(
+      Identifier.of(UltraEconomy.MOD_ID, "rank"), (ctx, arg) -> {
+        if (CobbleUtils.server == null || CobbleUtils.server.isStopping() || CobbleUtils.server.isStopped())
+          return PlaceholderResult.invalid();
+        var entity = ctx.entity();
+        if (entity == null) return PlaceholderResult.invalid();
+        if (!(entity instanceof ServerPlayerEntity player)) return PlaceholderResult.invalid();
+        if (arg == null || arg.isEmpty()) return PlaceholderResult.invalid();
+        Currency currency = Currencies.getCurrency(arg);
+        // Solo memoria, se puede pedir en cada tick para todos los jugadores
+        int rank = LeaderboardManager.getRank(player.getUuid(), currency);
+        return PlaceholderResult.value(rank > 0 ? Integer.toString(rank) : "-");
+      }
+    );
+  }
 }
@@ -54,7 +54,7 @@ public class VaultService {
     return BigDecimal.valueOf(balance);
   }
 
-  public static void setBalance(@NotNull UUID uuid, @NotNull String currency, BigDecimal amount) {
+  public static synchronized void setBalance(@NotNull UUID uuid, @NotNull String currency, BigDecimal amount) {
     if (service == null) return;
     double currentBalance = service.getBalance(Bukkit.getOfflinePlayer(uuid));
     double targetBalance = amount.doubleValue();
@@ -66,16 +66,31 @@ public class VaultService {
     }
   }
 
-  public static boolean deposit(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
+  public static synchronized boolean deposit(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
     if (service == null) return false;
     return service.depositPlayer(Bukkit.getOfflinePlayer(uuid), amount.doubleValue()).transactionSuccess();
   }
 
-  public static boolean withdraw(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
+  public static synchronized boolean withdraw(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
     if (service == null) return false;
     return service.withdrawPlayer(Bukkit.getOfflinePlayer(uuid), amount.doubleValue()).transactionSuccess();
   }
 
+  /**
+   * Check the balance and withdraw in one step. Every change made through this class holds the same lock,
+   * so two withdrawals can not both pass the check (changes made directly on the economy by other plugins
+   * are not covered)
+   *
+   * @return true if the player had enough and the amount was withdrawn
+   */
+  public static synchronized boolean tryWithdraw(@NotNull UUID uuid, @NotNull String currency,
+                                                 @NotNull BigDecimal amount) {
+    if (service == null) return false;
+    var player = Bukkit.getOfflinePlayer(uuid);
+    if (!service.has(player, amount.doubleValue())) return false;
+    return service.withdrawPlayer(player, amount.doubleValue()).transactionSuccess();
+  }
+
   public static boolean hashEnoughBalance(@NotNull UUID uuid, @NotNull String currency, @NotNull BigDecimal amount) {
     if (service == null) return false;
     return service.has(Bukkit.getOfflinePlayer(uuid), amount.doubleValue());
@@ -1,8 +1,10 @@
 package com.kingpixel.ultraeconomy.web.server;
 
 import com.kingpixel.ultraeconomy.UltraEconomy;
+import com.kingpixel.ultraeconomy.web.server.api.MetricsApiServlet;
 import com.kingpixel.ultraeconomy.web.server.api.PlayerApiServlet;
 import com.kingpixel.ultraeconomy.web.server.api.PlayersApiServlet;
+import com.kingpixel.ultraeconomy.web.server.api.PrometheusServlet;
 import com.kingpixel.ultraeconomy.web.server.api.TransactionPlayerApiServlet;
 import jakarta.servlet.*;
 import jakarta.servlet.http.HttpServletRequest;
@@ -77,6 +79,8 @@ public class WebServer {
     context.addServlet(PlayersApiServlet.class, "/api/players");
     context.addServlet(TransactionPlayerApiServlet.class, "/api/transactions/player/*");
     context.addServlet(PlayerApiServlet.class, "/api/player/*");
+    context.addServlet(MetricsApiServlet.class, "/api/metrics/database");
+    context.addServlet(PrometheusServlet.class, "/metrics");
   }
 
   private void registerCors(ServletContextHandler context) {
@@ -107,7 +111,7 @@ public class WebServer {
         String path = req.getRequestURI();
 
         // Si es API o archivo existente, dejamos pasar
-        if (path.startsWith("/api/") || resourceExists(path)) {
+        if (path.startsWith("/api/") || path.equals("/metrics") || resourceExists(path)) {
           chain.doFilter(request, response);
           return;
         }
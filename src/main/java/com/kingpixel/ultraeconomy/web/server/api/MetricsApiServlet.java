@@ -0,0 +1,22 @@
+package com.kingpixel.ultraeconomy.web.server.api;
+
+import com.kingpixel.cobbleutils.util.Utils;
+import com.kingpixel.ultraeconomy.metrics.DatabaseMetrics;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+public class MetricsApiServlet extends HttpServlet {
+
+  @Override
+  protected void doGet(
+    HttpServletRequest req,
+    HttpServletResponse resp
+  ) throws IOException {
+    resp.setContentType("application/json");
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.getWriter().write(Utils.newWithoutSpacingGson().toJson(DatabaseMetrics.toJson()));
+  }
+}
@@ -2,6 +2,7 @@ package com.kingpixel.ultraeconomy.web.server.api;
 
 import com.kingpixel.cobbleutils.util.Utils;
 import com.kingpixel.ultraeconomy.database.DatabaseFactory;
+import com.kingpixel.ultraeconomy.manager.PlayerIndexManager;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -36,7 +37,8 @@ public class PlayerApiServlet extends HttpServlet {
       account = DatabaseFactory.INSTANCE.getAccount(playerUuid);
     } catch (IllegalArgumentException e) {
       // Si no es UUID, lo tratamos como nombre
-      account = DatabaseFactory.INSTANCE.getAccountByName(identifier);
+      UUID playerUuid = PlayerIndexManager.getUUID(identifier);
+      if (playerUuid != null) account = DatabaseFactory.INSTANCE.getAccount(playerUuid);
     }
 
     if (account == null) {
@@ -0,0 +1,21 @@
+package com.kingpixel.ultraeconomy.web.server.api;
+
+import com.kingpixel.ultraeconomy.metrics.MetricsRegistry;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+public class PrometheusServlet extends HttpServlet {
+
+  @Override
+  protected void doGet(
+    HttpServletRequest req,
+    HttpServletResponse resp
+  ) throws IOException {
+    resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.getWriter().write(MetricsRegistry.toPrometheus());
+  }
+}